@@ -0,0 +1,172 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Input data shared by the benchmarks
+ *
+ * @author simon
+ *
+ */
+final class BenchmarkData {
+
+    static final String CORPUS = "test-data/template.txt";
+
+    /**
+     * A template and the tags it should be formatted with
+     */
+    static final class Entry {
+        final String              template;
+        final Map<String, String> tags;
+
+        Entry(@NotNull String template, @NotNull Map<String, String> tags) {
+            this.template = template;
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * Private constructor
+     */
+    private BenchmarkData() {
+        // nothing
+    }
+
+    /**
+     * Read the regression test corpus, same format as used by JosmTemplateParserTest
+     *
+     * @return a List of Entry
+     * @throws IOException if the corpus can't be read
+     */
+    @NotNull
+    static List<Entry> corpus() throws IOException {
+        List<Entry> result = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(CORPUS), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || "".equals(line.trim())) {
+                    continue;
+                }
+                String[] b = line.split("\t");
+                Map<String, String> tags = new HashMap<>();
+                if (b.length == 2) {
+                    for (String tag : b[1].split("/")) {
+                        String[] kv = tag.split("=");
+                        if (kv.length == 2) {
+                            tags.put(kv[0], kv[1]);
+                        }
+                    }
+                }
+                result.add(new Entry(b[0], tags));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generate a synthetic template with a mix of all element types
+     *
+     * @param groups the number of repetitions of the basic pattern
+     * @return a template string
+     */
+    @NotNull
+    static String largeTemplate(int groups) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < groups; i++) {
+            builder.append("Bus ({operator} {%ref} ");
+            builder.append("?{ admin_level = 2 'NUTS 1' | admin_level = 4 'NUTS 2' | 'Admin level {admin_level}'} ");
+            builder.append("?{'{from} - {via} - {to}' | '{from} - {to}' | '{from}'} ");
+            builder.append("{special:id} !{parent type=route '{name}'})");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Tags matching the synthetic template
+     *
+     * @return a Map of tags
+     */
+    @NotNull
+    static Map<String, String> largeTemplateTags() {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("operator", "PostAuto");
+        tags.put("ref", "42");
+        tags.put("admin_level", "4");
+        tags.put("from", "Bern");
+        tags.put("to", "Thun");
+        tags.put("name", "Bus 42");
+        return tags;
+    }
+
+    /**
+     * Parse a template
+     *
+     * @param template the template string
+     * @return a List of Formatter
+     * @throws ParseException if parsing fails
+     */
+    @NotNull
+    static List<Formatter> parse(@NotNull String template) throws ParseException {
+        return JosmTemplateParser.parse(template);
+    }
+
+    /**
+     * Create a Meta object for an element with tags that is a member of a single parent
+     *
+     * @param tags the tags of the element
+     * @return a Meta instance
+     */
+    @NotNull
+    static Meta meta(@NotNull Map<String, String> tags) {
+        TestMeta parent = new TestMeta() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Map<String, String> getTags() {
+                return tags;
+            }
+        };
+        TestMeta meta = new TestMeta() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Type getType() {
+                return Type.WAY;
+            }
+
+            @Override
+            public Map<String, String> getTags() {
+                return tags;
+            }
+
+            @Override
+            public List<Serializable> getMatchingElements(@NotNull Condition c) {
+                return Arrays.asList(parent);
+            }
+
+            @Override
+            public @NotNull Meta wrap(Serializable o) {
+                return (Meta) o;
+            }
+        };
+        meta.id = 123456789L;
+        meta.version = 3L;
+        return meta;
+    }
+}
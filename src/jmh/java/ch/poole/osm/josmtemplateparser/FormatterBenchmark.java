@@ -0,0 +1,253 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Per element formatting cost for each Formatter kind, for the regression test corpus and for a large synthetic
+ * template
+ *
+ * @author simon
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FormatterBenchmark {
+
+    private static final KeyDictionary DICTIONARY = new KeyDictionary();
+
+    // constant roots, the JIT can only inline a method handle tree that is reachable from a constant
+    private static final MethodHandleTemplate STATIC_LARGE_TEMPLATE = compileLarge();
+    private static final MethodHandle         STATIC_LARGE_HANDLE   = STATIC_LARGE_TEMPLATE.getHandle();
+
+    private Map<String, String> tags;
+    private Meta                meta;
+    private TagSource           tagSource;
+
+    private final List<List<Formatter>>     corpusFormatters = new ArrayList<>();
+    private final List<Map<String, String>> corpusTags       = new ArrayList<>();
+
+    private List<Formatter>      large;
+    private TemplateProgram      largeProgram;
+    private MethodHandleTemplate largeHandle;
+
+    private final StringBuilder builder = new StringBuilder();
+
+    /**
+     * State for templates consisting of a single Formatter
+     */
+    @State(Scope.Benchmark)
+    public static class Single {
+
+        /**
+         * The Formatter kind to benchmark, see {@link FormatterBenchmark#template(String)}
+         */
+        @Param({ "literal", "tag", "refName", "displayValue", "special", "everything", "conditional", "equalityChain", "implicitConditional", "search" })
+        String kind;
+
+        List<Formatter>      formatters;
+        CompiledTemplate     compiled;
+        CompiledTemplate     bound;
+        TemplateProgram      program;
+        MethodHandleTemplate handle;
+
+        @Setup
+        public void setup() throws ParseException {
+            formatters = BenchmarkData.parse(template(kind));
+            compiled = CompiledTemplate.compile(formatters);
+            bound = CompiledTemplate.compile(formatters, DICTIONARY);
+            program = TemplateProgram.compile(formatters);
+            handle = MethodHandleTemplate.compile(formatters);
+        }
+    }
+
+    /**
+     * TagSource with the values stored by slot, as provided by a dictionary encoded element store
+     */
+    private static final class ArrayTagSource implements TagSource {
+        private final String[]            values;
+        private final Map<String, String> tags;
+
+        /**
+         * Construct a new instance
+         *
+         * @param tags the tags
+         */
+        ArrayTagSource(Map<String, String> tags) {
+            this.tags = tags;
+            for (String key : tags.keySet()) {
+                DICTIONARY.slot(key);
+            }
+            values = new String[DICTIONARY.size()];
+            for (Map.Entry<String, String> entry : tags.entrySet()) {
+                values[DICTIONARY.getSlot(entry.getKey())] = entry.getValue();
+            }
+        }
+
+        @Override
+        public String get(int slot) {
+            return slot < values.length ? values[slot] : null;
+        }
+
+        @Override
+        public Map<String, String> asMap() {
+            return tags;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException, ParseException {
+        tags = BenchmarkData.largeTemplateTags();
+        meta = BenchmarkData.meta(tags);
+        tagSource = new ArrayTagSource(tags);
+        for (BenchmarkData.Entry entry : BenchmarkData.corpus()) {
+            corpusFormatters.add(BenchmarkData.parse(entry.template));
+            corpusTags.add(entry.tags);
+        }
+        large = BenchmarkData.parse(BenchmarkData.largeTemplate(10));
+        largeProgram = TemplateProgram.compile(large);
+        largeHandle = MethodHandleTemplate.compile(large);
+    }
+
+    /**
+     * Compile the large template for the static fields
+     *
+     * @return a MethodHandleTemplate
+     */
+    private static MethodHandleTemplate compileLarge() {
+        try {
+            return MethodHandleTemplate.compile(BenchmarkData.parse(BenchmarkData.largeTemplate(10)));
+        } catch (ParseException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Get a template consisting of a single Formatter of the requested kind
+     *
+     * @param kind the kind of Formatter
+     * @return a template string
+     */
+    static String template(String kind) {
+        switch (kind) {
+        case "literal":
+            return "Bus";
+        case "tag":
+            return "{ref}";
+        case "refName":
+            return "{ref} {name}";
+        case "displayValue":
+            return "{%ref}";
+        case "special":
+            return "{special:id}";
+        case "everything":
+            return "{special:everything}";
+        case "conditional":
+            return "?{ admin_level = 2 'NUTS 1' | admin_level = 4 'NUTS 2' | 'Admin level {admin_level}'}";
+        case "equalityChain":
+            StringBuilder chain = new StringBuilder("?{");
+            for (int level = 2; level <= 11; level++) {
+                chain.append(" admin_level = ").append(level).append(" 'Level ").append(level).append("' |");
+            }
+            return chain.append(" 'Admin level {admin_level}'}").toString();
+        case "implicitConditional":
+            return "?{'{from} - {via} - {to}' | '{from} - {to}' | '{from}'}";
+        case "search":
+            return "!{parent type=route '{name}'}";
+        default:
+            throw new IllegalArgumentException("Unknown kind " + kind);
+        }
+    }
+
+    @Benchmark
+    public String format(Single single) {
+        return Util.listFormat(single.formatters, Type.WAY, meta, tags);
+    }
+
+    @Benchmark
+    public String formatCompiled(Single single) {
+        return single.compiled.format(Type.WAY, meta, tags);
+    }
+
+    @Benchmark
+    public String formatProgram(Single single) {
+        return single.program.format(Type.WAY, meta, tags);
+    }
+
+    @Benchmark
+    public String formatHandle(Single single) {
+        return single.handle.format(Type.WAY, meta, tags);
+    }
+
+    @Benchmark
+    public int formatFrom(Single single) {
+        builder.setLength(0);
+        single.bound.formatFrom(builder, Type.WAY, meta, tagSource);
+        return builder.length();
+    }
+
+    @Benchmark
+    public int formatTo(Single single) {
+        builder.setLength(0);
+        Util.listFormatTo(builder, single.formatters, Type.WAY, meta, tags);
+        return builder.length();
+    }
+
+    @Benchmark
+    public void formatCorpus(Blackhole bh) {
+        for (int i = 0; i < corpusFormatters.size(); i++) {
+            bh.consume(Util.listFormat(corpusFormatters.get(i), Type.WAY, null, corpusTags.get(i)));
+        }
+    }
+
+    @Benchmark
+    public String formatLarge() {
+        return Util.listFormat(large, Type.WAY, meta, tags);
+    }
+
+    @Benchmark
+    public String formatLargeProgram() {
+        return largeProgram.format(Type.WAY, meta, tags);
+    }
+
+    @Benchmark
+    public String formatLargeHandle() {
+        return largeHandle.format(Type.WAY, meta, tags);
+    }
+
+    @Benchmark
+    public String formatLargeStaticTemplate() {
+        return STATIC_LARGE_TEMPLATE.format(Type.WAY, meta, tags);
+    }
+
+    @Benchmark
+    public int formatLargeStaticHandle() throws Throwable {
+        builder.setLength(0);
+        STATIC_LARGE_HANDLE.invokeExact(builder, Type.WAY, meta, tags);
+        return builder.length();
+    }
+}
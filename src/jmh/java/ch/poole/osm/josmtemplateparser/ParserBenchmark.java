@@ -0,0 +1,83 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parse cost for the regression test corpus and for large synthetic templates
+ *
+ * @author simon
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParserBenchmark {
+
+    private final List<String> corpus = new ArrayList<>();
+
+    /**
+     * State for the synthetic template
+     */
+    @State(Scope.Benchmark)
+    public static class Large {
+
+        /**
+         * Number of repetitions of the pattern in the synthetic template
+         */
+        @Param({ "10", "100", "1000" })
+        int groups;
+
+        String template;
+
+        @Setup
+        public void setup() {
+            template = BenchmarkData.largeTemplate(groups);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        for (BenchmarkData.Entry entry : BenchmarkData.corpus()) {
+            corpus.add(entry.template);
+        }
+    }
+
+    @Benchmark
+    public void parseCorpus(Blackhole bh) throws ParseException {
+        for (String template : corpus) {
+            bh.consume(BenchmarkData.parse(template));
+        }
+    }
+
+    @Benchmark
+    public void parseCorpusInputStream(Blackhole bh) throws ParseException {
+        for (String template : corpus) {
+            bh.consume(new JosmTemplateParser(new ByteArrayInputStream(template.getBytes())).formatters());
+        }
+    }
+
+    @Benchmark
+    public List<Formatter> parseLarge(Large large) throws ParseException {
+        return BenchmarkData.parse(large.template);
+    }
+}
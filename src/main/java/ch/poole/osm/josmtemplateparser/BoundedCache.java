@@ -0,0 +1,182 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Thread safe cache with approximate LRU eviction
+ *
+ * Lookups don't lock, when the cache grows larger than its maximum size the least recently used entries are removed
+ * in one go. Optionally entries expire a fixed time after they have been added.
+ *
+ * @author simon
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+final class BoundedCache<K, V> {
+
+    private static final class Entry<V> {
+        final V       value;
+        final long    created;
+        volatile long lastAccess;
+
+        Entry(@NotNull V value, long created, long lastAccess) {
+            this.value = value;
+            this.created = created;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final Map<K, Entry<V>> map    = new ConcurrentHashMap<>();
+    private final AtomicLong       clock  = new AtomicLong();
+    private final AtomicLong       hits   = new AtomicLong();
+    private final AtomicLong       misses = new AtomicLong();
+    private final int              maxSize;
+    private final long             maxAge;
+    private final LongSupplier     ticker;
+
+    /**
+     * Construct a new cache
+     *
+     * @param maxSize the maximum number of entries
+     */
+    BoundedCache(int maxSize) {
+        this(maxSize, 0, System::nanoTime);
+    }
+
+    /**
+     * Construct a new cache with entries that expire
+     *
+     * @param maxSize the maximum number of entries
+     * @param maxAge the time in ticker units after which an entry expires, 0 for no expiry
+     * @param ticker the time source
+     */
+    BoundedCache(int maxSize, long maxAge, @NotNull LongSupplier ticker) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("maxAge must not be negative");
+        }
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Get a value from the cache
+     *
+     * @param key the key
+     * @return the value or null if not present
+     */
+    @Nullable
+    V get(@NotNull K key) {
+        Entry<V> entry = map.get(key);
+        if (entry != null && maxAge > 0 && ticker.getAsLong() - entry.created >= maxAge) {
+            map.remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        entry.lastAccess = clock.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Add a value to the cache if there isn't already one for the key
+     *
+     * @param key the key
+     * @param value the value
+     * @return the value now in the cache for key
+     */
+    @NotNull
+    V putIfAbsent(@NotNull K key, @NotNull V value) {
+        final long now = maxAge > 0 ? ticker.getAsLong() : 0;
+        Entry<V> entry = new Entry<>(value, now, clock.incrementAndGet());
+        Entry<V> previous = map.putIfAbsent(key, entry);
+        if (previous != null) {
+            if (maxAge == 0 || now - previous.created < maxAge || !map.replace(key, previous, entry)) {
+                return previous.value;
+            }
+        }
+        if (map.size() > maxSize) {
+            evict();
+        }
+        return value;
+    }
+
+    /**
+     * Remove the least recently used entries
+     *
+     * This removes an additional eighth of the entries so that we don't have to do this on every put
+     */
+    private synchronized void evict() {
+        int excess = map.size() - maxSize;
+        if (excess <= 0) {
+            return;
+        }
+        // snapshot the access times, they may change while we are doing this
+        long[] accessTimes = new long[map.size()];
+        int count = 0;
+        for (Entry<V> entry : map.values()) {
+            if (count == accessTimes.length) {
+                break;
+            }
+            accessTimes[count++] = entry.lastAccess;
+        }
+        if (count == 0) {
+            return;
+        }
+        Arrays.sort(accessTimes, 0, count);
+        final long threshold = accessTimes[Math.min(count, excess + maxSize / 8) - 1];
+        map.values().removeIf(entry -> entry.lastAccess <= threshold);
+    }
+
+    /**
+     * Remove all entries with keys matching a predicate
+     *
+     * @param predicate the Predicate
+     */
+    void removeIf(@NotNull Predicate<K> predicate) {
+        map.keySet().removeIf(predicate);
+    }
+
+    /**
+     * Remove all entries, the statistics are not reset
+     */
+    void clear() {
+        map.clear();
+    }
+
+    /**
+     * @return the current number of entries
+     */
+    int size() {
+        return map.size();
+    }
+
+    /**
+     * @return the number of lookups that found a value
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that didn't find a value
+     */
+    long getMisses() {
+        return misses.get();
+    }
+}
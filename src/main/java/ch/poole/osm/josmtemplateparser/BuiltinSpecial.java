@@ -0,0 +1,77 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * The specials supported by JOSM
+ * 
+ * @author simon
+ *
+ */
+public enum BuiltinSpecial implements SpecialHandler {
+    /**
+     * All tags of the element as key=value lines
+     */
+    EVERYTHING("special:everything") {
+        @Override
+        public void append(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            Map<String, String> t = meta != null ? meta.getTags() : null;
+            if (t != null) {
+                Special.buildStringFromTags(builder, t);
+            }
+        }
+    },
+    /**
+     * The id of the element
+     */
+    ID("special:id") {
+        @Override
+        public void append(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            if (meta != null) {
+                builder.append(meta.getId());
+            }
+        }
+    },
+    /**
+     * The value of the name tag
+     */
+    LOCAL_NAME("special:localName") {
+        @Override
+        public void append(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            Map<String, String> t = meta != null ? meta.getTags() : null;
+            if (t != null) {
+                String name = t.get(Special.NAME_KEY);
+                if (name != null) {
+                    builder.append(name);
+                }
+            }
+        }
+    };
+
+    private final String key;
+
+    /**
+     * Construct a new instance
+     * 
+     * @param key the key including the special: prefix
+     */
+    BuiltinSpecial(@NotNull String key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the key
+     * 
+     * @return the key including the special: prefix
+     */
+    @NotNull
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,72 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.io.Reader;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reader that reads directly from a CharSequence without copying it
+ *
+ * @author simon
+ *
+ */
+final class CharSequenceReader extends Reader {
+
+    private final CharSequence sequence;
+    private final int          length;
+    private int                position = 0;
+
+    /**
+     * Construct a new reader
+     *
+     * @param sequence the CharSequence to read from, must not be modified while reading
+     */
+    CharSequenceReader(@NotNull CharSequence sequence) {
+        this.sequence = sequence;
+        this.length = sequence.length();
+    }
+
+    @Override
+    public int read() {
+        return position < length ? sequence.charAt(position++) : -1;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+        final int count = Math.min(len, length - position);
+        if (sequence instanceof String) {
+            ((String) sequence).getChars(position, position + count, cbuf, off);
+        } else if (sequence instanceof StringBuilder) {
+            ((StringBuilder) sequence).getChars(position, position + count, cbuf, off);
+        } else {
+            for (int i = 0; i < count; i++) {
+                cbuf[off + i] = sequence.charAt(position + i);
+            }
+        }
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        final int count = (int) Math.max(0, Math.min(n, (long) length - position));
+        position += count;
+        return count;
+    }
+
+    @Override
+    public boolean ready() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+}
@@ -0,0 +1,460 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * A parsed template with an implementation chosen by its shape
+ *
+ * Typical templates like {name} or {ref} {name} are formatted without going through the generic formatter loop and
+ * without a default sized StringBuilder. The template is simplified with {@link Optimizer} before an implementation is
+ * chosen, and conditionals with runs of key = value tests on the same key are turned in to a single lookup. Instances
+ * are immutable and can be shared between threads.
+ * 
+ * Templates compiled against a {@link KeyDictionary} read tag values by slot when formatted with
+ * {@link #formatFrom(Type, Meta, TagSource)}, the TagSource must use the same dictionary.
+ *
+ * @author simon
+ *
+ */
+public abstract class CompiledTemplate implements Formatter {
+
+    static final int ESTIMATED_VALUE_LENGTH = 16;
+
+    private final List<Formatter> formatters;
+    private volatile ReferencedKeys referencedKeys; // NOSONAR immutable once created
+
+    /**
+     * Construct a new template
+     *
+     * @param formatters the original formatters
+     */
+    CompiledTemplate(@NotNull List<Formatter> formatters) {
+        this.formatters = formatters;
+    }
+
+    /**
+     * Compile a parsed template
+     *
+     * @param formatters the output of the parser
+     * @return a CompiledTemplate
+     */
+    @NotNull
+    public static CompiledTemplate compile(@NotNull List<Formatter> formatters) {
+        List<Formatter> copy = Collections.unmodifiableList(new ArrayList<>(formatters));
+        return compile(copy, EqualityDispatch.apply(Optimizer.optimize(copy), null));
+    }
+
+    /**
+     * Compile a parsed template binding its tags to slots in a KeyDictionary
+     *
+     * Keys that are not in the dictionary are added
+     *
+     * @param formatters the output of the parser
+     * @param dictionary the KeyDictionary
+     * @return a CompiledTemplate
+     */
+    @NotNull
+    public static CompiledTemplate compile(@NotNull List<Formatter> formatters, @NotNull KeyDictionary dictionary) {
+        List<Formatter> copy = Collections.unmodifiableList(bind(formatters, dictionary));
+        return compile(copy, EqualityDispatch.apply(Optimizer.optimize(copy), dictionary));
+    }
+
+    /**
+     * Compile a template that has already been optimized
+     *
+     * @param formatters the formatters the template was created from
+     * @param optimized the optimized formatters, these are used as is
+     * @return a CompiledTemplate
+     */
+    @NotNull
+    static CompiledTemplate compileOptimized(@NotNull List<Formatter> formatters, @NotNull List<Formatter> optimized) {
+        return compile(Collections.unmodifiableList(new ArrayList<>(formatters)), optimized);
+    }
+
+    /**
+     * Replace tags with slot bound tags, recursing in to conditionals
+     *
+     * @param formatters the formatters
+     * @param dictionary the KeyDictionary
+     * @return a new List of Formatter
+     */
+    @NotNull
+    static List<Formatter> bind(@NotNull List<Formatter> formatters, @NotNull KeyDictionary dictionary) {
+        List<Formatter> result = new ArrayList<>(formatters.size());
+        for (Formatter f : formatters) {
+            if (f instanceof Tag && !(f instanceof SlotTag)) {
+                result.add(new SlotTag((Tag) f, dictionary));
+            } else if (f instanceof Conditional) {
+                result.add(((Conditional) f).bind(dictionary));
+            } else if (f instanceof CompiledTemplate) {
+                result.add(compile(((CompiledTemplate) f).getFormatters(), dictionary));
+            } else {
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Select an implementation for the formatters
+     *
+     * @param copy an unmodifiable List of formatters owned by the template
+     * @param optimized the optimized formatters
+     * @return a CompiledTemplate
+     */
+    @NotNull
+    private static CompiledTemplate compile(@NotNull List<Formatter> copy, @NotNull List<Formatter> optimized) {
+        boolean constant = true;
+        boolean literalsAndTags = true;
+        int literalLength = 0;
+        int variableCount = 0;
+        for (Formatter f : optimized) {
+            if (f instanceof Literal) {
+                literalLength += ((Literal) f).getValue().length();
+            } else {
+                constant = false;
+                variableCount++;
+                literalsAndTags = literalsAndTags && f instanceof Tag;
+            }
+        }
+        if (constant) {
+            return new Constant(copy, optimized);
+        }
+        if (optimized.size() == 1) {
+            return new Single(copy, optimized.get(0));
+        }
+        final int estimatedLength = literalLength + variableCount * ESTIMATED_VALUE_LENGTH;
+        if (literalsAndTags) {
+            return new LiteralTagSequence(copy, optimized, estimatedLength);
+        }
+        return new Sequence(copy, optimized, estimatedLength);
+    }
+
+    /**
+     * Get the formatters this template was compiled from
+     *
+     * @return an unmodifiable List of Formatter
+     */
+    @NotNull
+    public List<Formatter> getFormatters() {
+        return formatters;
+    }
+
+    /**
+     * Format a concrete OSM element reading its tags from a TagSource
+     *
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element or null
+     * @return the formatted "name"
+     */
+    @NotNull
+    public String formatFrom(@NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+        StringBuilder builder = new StringBuilder(estimatedLength());
+        formatFrom(builder, type, meta, tags);
+        return builder.toString();
+    }
+
+    /**
+     * Format a concrete OSM element producing at most maxChars characters
+     *
+     * Parts of the template are not evaluated once the output has reached maxChars characters
+     *
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element or null
+     * @param maxChars the maximum length of the output
+     * @return the formatted "name" truncated to maxChars
+     */
+    @NotNull
+    public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags, int maxChars) {
+        Util.checkMaxChars(maxChars);
+        StringBuilder builder = new StringBuilder(Math.min(maxChars, estimatedLength()));
+        int limit = Util.limit(builder, maxChars);
+        formatTo(builder, type, meta, tags, limit);
+        if (builder.length() > limit) {
+            builder.setLength(limit);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get the initial size for the StringBuilder in format
+     *
+     * @return the estimated output length
+     */
+    int estimatedLength() {
+        return ESTIMATED_VALUE_LENGTH;
+    }
+
+    /**
+     * Get the keys this template uses
+     *
+     * @return a ReferencedKeys instance
+     */
+    @NotNull
+    public ReferencedKeys referencedKeys() {
+        ReferencedKeys result = referencedKeys;
+        if (result == null) {
+            result = ReferencedKeys.of(formatters);
+            referencedKeys = result;
+        }
+        return result;
+    }
+
+    /**
+     * Check if the output of the template can change if the values of some keys change
+     *
+     * @param changedKeys the keys that have been added, removed or changed
+     * @return true if the output may have changed
+     * @see ReferencedKeys#isAffectedBy(Set)
+     */
+    public boolean isAffectedBy(@NotNull Set<String> changedKeys) {
+        return referencedKeys().isAffectedBy(changedKeys);
+    }
+
+    /**
+     * Check if the output of the template can change between two versions of the tags of an element
+     *
+     * @param oldTags the tags before the change or null
+     * @param newTags the tags after the change or null
+     * @return true if the output may have changed
+     * @see ReferencedKeys#isAffectedBy(Map, Map)
+     */
+    public boolean isAffectedBy(@Nullable Map<String, String> oldTags, @Nullable Map<String, String> newTags) {
+        return referencedKeys().isAffectedBy(oldTags, newTags);
+    }
+
+    @Override
+    public String toString() {
+        return formatters.toString();
+    }
+
+    /**
+     * Template that only contains literals
+     */
+    static final class Constant extends CompiledTemplate {
+        private final String value;
+
+        /**
+         * Construct a new template
+         *
+         * @param formatters the original formatters
+         * @param optimized the optimized formatters, all Literal
+         */
+        Constant(@NotNull List<Formatter> formatters, @NotNull List<Formatter> optimized) {
+            super(formatters);
+            StringBuilder builder = new StringBuilder();
+            for (Formatter f : optimized) {
+                builder.append(((Literal) f).getValue());
+            }
+            value = builder.toString();
+        }
+
+        @Override
+        @NotNull
+        public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            return value;
+        }
+
+        @Override
+        public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            builder.append(value);
+        }
+
+        @Override
+        public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+            builder.append(value);
+        }
+
+        @Override
+        int estimatedLength() {
+            return value.length();
+        }
+    }
+
+    /**
+     * Template with a single formatter, for a Tag this returns the value from the map directly
+     */
+    static final class Single extends CompiledTemplate {
+        private final Formatter formatter;
+
+        /**
+         * Construct a new template
+         *
+         * @param formatters the original formatters
+         * @param formatter the single optimized formatter
+         */
+        Single(@NotNull List<Formatter> formatters, @NotNull Formatter formatter) {
+            super(formatters);
+            this.formatter = formatter;
+        }
+
+        @Override
+        @NotNull
+        public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            return formatter.format(type, meta, tags);
+        }
+
+        @Override
+        public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            formatter.formatTo(builder, type, meta, tags);
+        }
+
+        @Override
+        public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags, int limit) {
+            formatter.formatTo(builder, type, meta, tags, limit);
+        }
+
+        @Override
+        public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+            formatter.formatFrom(builder, type, meta, tags);
+        }
+    }
+
+    /**
+     * Template consisting of literals and tags, literals are merged and the tags accessed directly
+     */
+    static final class LiteralTagSequence extends CompiledTemplate {
+        private final String[] literals; // literals[i] is output before tags[i], the last element after the last tag
+        private final Tag[]    tags;
+        private final int      estimatedLength;
+
+        /**
+         * Construct a new template
+         *
+         * @param formatters the original formatters
+         * @param optimized the optimized formatters, Literal or Tag
+         * @param estimatedLength the estimated output length
+         */
+        LiteralTagSequence(@NotNull List<Formatter> formatters, @NotNull List<Formatter> optimized, int estimatedLength) {
+            super(formatters);
+            this.estimatedLength = estimatedLength;
+            List<String> literalList = new ArrayList<>();
+            List<Tag> tagList = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            for (Formatter f : optimized) {
+                if (f instanceof Literal) {
+                    literal.append(((Literal) f).getValue());
+                } else {
+                    literalList.add(literal.toString());
+                    literal.setLength(0);
+                    tagList.add((Tag) f);
+                }
+            }
+            literalList.add(literal.toString());
+            literals = literalList.toArray(new String[0]);
+            tags = tagList.toArray(new Tag[0]);
+        }
+
+        @Override
+        @NotNull
+        public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tagMap) {
+            StringBuilder builder = new StringBuilder(estimatedLength);
+            formatTo(builder, type, meta, tagMap);
+            return builder.toString();
+        }
+
+        @Override
+        public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tagMap) {
+            for (int i = 0; i < tags.length; i++) {
+                builder.append(literals[i]);
+                tags[i].formatTo(builder, type, meta, tagMap);
+            }
+            builder.append(literals[tags.length]);
+        }
+
+        @Override
+        public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tagMap, int limit) {
+            for (int i = 0; i < tags.length && builder.length() < limit; i++) {
+                builder.append(literals[i]);
+                tags[i].formatTo(builder, type, meta, tagMap);
+            }
+            if (builder.length() < limit) {
+                builder.append(literals[tags.length]);
+            }
+        }
+
+        @Override
+        public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tagSource) {
+            for (int i = 0; i < tags.length; i++) {
+                builder.append(literals[i]);
+                tags[i].formatFrom(builder, type, meta, tagSource);
+            }
+            builder.append(literals[tags.length]);
+        }
+
+        @Override
+        int estimatedLength() {
+            return estimatedLength;
+        }
+    }
+
+    /**
+     * Generic template
+     */
+    static final class Sequence extends CompiledTemplate {
+        private final Formatter[] sequence;
+        private final int         estimatedLength;
+
+        /**
+         * Construct a new template
+         *
+         * @param formatters the original formatters
+         * @param optimized the optimized formatters
+         * @param estimatedLength the estimated output length
+         */
+        Sequence(@NotNull List<Formatter> formatters, @NotNull List<Formatter> optimized, int estimatedLength) {
+            super(formatters);
+            this.estimatedLength = estimatedLength;
+            sequence = optimized.toArray(new Formatter[0]);
+        }
+
+        @Override
+        @NotNull
+        public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            StringBuilder builder = new StringBuilder(estimatedLength);
+            formatTo(builder, type, meta, tags);
+            return builder.toString();
+        }
+
+        @Override
+        public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            for (Formatter f : sequence) {
+                f.formatTo(builder, type, meta, tags);
+            }
+        }
+
+        @Override
+        public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags, int limit) {
+            for (Formatter f : sequence) {
+                if (builder.length() >= limit) {
+                    return;
+                }
+                f.formatTo(builder, type, meta, tags, limit);
+            }
+        }
+
+        @Override
+        public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+            for (Formatter f : sequence) {
+                f.formatFrom(builder, type, meta, tags);
+            }
+        }
+
+        @Override
+        int estimatedLength() {
+            return estimatedLength;
+        }
+    }
+}
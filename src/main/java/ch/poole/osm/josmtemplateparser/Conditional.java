@@ -1,8 +1,7 @@
 package ch.poole.osm.josmtemplateparser;
 
-import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -10,7 +9,6 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import ch.poole.osm.josmfilterparser.Condition;
-import ch.poole.osm.josmfilterparser.JosmFilterParser;
 import ch.poole.osm.josmfilterparser.Meta;
 import ch.poole.osm.josmfilterparser.Type;
 
@@ -22,15 +20,34 @@ import ch.poole.osm.josmfilterparser.Type;
  */
 public class Conditional implements Formatter {
 
-    class ConditionalValue {
+    static final class ConditionalValue {
         final Condition       condition;
+        final String          source;
         final List<Formatter> values;
 
-        ConditionalValue(@Nullable final Condition condition, @NotNull final List<Formatter> value) {
+        ConditionalValue(@Nullable final Condition condition, @Nullable final String source, @NotNull final List<Formatter> value) {
             this.condition = condition;
+            this.source = source;
             this.values = value;
         }
 
+        @Override
+        public int hashCode() {
+            return 31 * (source != null ? source.hashCode() : 0) + values.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ConditionalValue)) {
+                return false;
+            }
+            ConditionalValue other = (ConditionalValue) obj;
+            return Conditions.same(condition, source, other.condition, other.source) && values.equals(other.values);
+        }
+
         @Override
         public String toString() {
             StringBuilder builder = new StringBuilder();
@@ -46,52 +63,208 @@ public class Conditional implements Formatter {
 
     private final List<ConditionalValue> conditions = new ArrayList<>();
 
+    /**
+     * Construct a new Conditional from the unparsed conditions and values
+     * 
+     * @param conditionStrings the conditions in JOSM filter syntax, null or empty for implicit conditions
+     * @param values the quoted templates with the quoting removed
+     * @throws ParseException if a condition or value can't be parsed
+     */
     public Conditional(@NotNull List<String> conditionStrings, @NotNull List<String> values) throws ParseException {
+        NestedParser parser = new NestedParser();
         for (int i = 0; i < conditionStrings.size(); i++) {
             final String c = conditionStrings.get(i);
-            final String v = values.get(i);
-            try {
-                ConditionalValue cv = new ConditionalValue(
-                        c != null && !"".equals(c.trim()) ? (new JosmFilterParser(new ByteArrayInputStream(c.trim().getBytes()))).condition() : null,
-                        !"".equals(v.trim()) ? (new JosmTemplateParser(new ByteArrayInputStream(v.getBytes()))).formatters() : Arrays.asList(new Literal("")));
-                conditions.add(cv);
-            } catch (ch.poole.osm.josmfilterparser.ParseException pex) {
-                throw new ParseException("Search expression " + c + " " + pex.getMessage());
-            }
+            final boolean explicit = c != null && !"".equals(c.trim());
+            conditions.add(new ConditionalValue(explicit ? parser.condition(c) : null, explicit ? c.trim() : null, parser.value(values.get(i))));
+        }
+    }
+
+    /**
+     * Construct a new empty Conditional, conditions and values are added with {@link #add(Condition, String, List)}
+     */
+    Conditional() {
+        // nothing
+    }
+
+    /**
+     * Add an already parsed condition and value
+     * 
+     * @param condition the Condition, null for an implicit condition
+     * @param source the source of the condition, null for an implicit condition
+     * @param values the value
+     */
+    void add(@Nullable Condition condition, @Nullable String source, @NotNull List<Formatter> values) {
+        conditions.add(new ConditionalValue(condition, source, values));
+    }
+
+    /**
+     * Get the conditions and values
+     * 
+     * @return an unmodifiable List of ConditionalValue
+     */
+    @NotNull
+    List<ConditionalValue> getConditions() {
+        return Collections.unmodifiableList(conditions);
+    }
+
+    /**
+     * Create a copy with the tags in the values bound to slots
+     * 
+     * @param dictionary the KeyDictionary
+     * @return a new Conditional
+     */
+    @NotNull
+    Conditional bind(@NotNull KeyDictionary dictionary) {
+        Conditional result = new Conditional();
+        for (ConditionalValue cv : conditions) {
+            result.add(cv.condition, cv.source, CompiledTemplate.bind(cv.values, dictionary));
         }
+        return result;
     }
 
     @Override
     @NotNull
     public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        StringBuilder builder = new StringBuilder();
+        formatTo(builder, type, meta, tags);
+        return builder.toString();
+    }
+
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        formatTo(builder, type, meta, tags, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Implicit conditions are always evaluated completely, as an incomplete value could select a different branch
+     */
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags, int limit) {
         if (tags == null || conditions.isEmpty()) {
-            return "";
+            return;
         }
         int lastIndex = conditions.size() - 1;
         for (int i = 0; i < lastIndex; i++) {
             ConditionalValue cv = conditions.get(i);
-            if (cv != null) {
-                if (cv.condition != null) {
-                    if (cv.condition.eval(type, meta, tags)) {
-                        return Util.listFormat(cv.values, type, meta, tags);
-                    }
-                } else {
-                    StringBuilder builder = new StringBuilder();
-                    for (Formatter f : cv.values) {
-                        String t = f.format(type, meta, tags);
-                        if ("".equals(t)) {
-                            builder.setLength(0);
-                            break;
-                        }
-                        builder.append(t);
-                    }
-                    if (builder.length() > 0) {
-                        return builder.toString();
+            if (cv.condition != null) {
+                if (cv.condition.eval(type, meta, tags)) {
+                    Util.listFormatToLimit(builder, cv.values, type, meta, tags, limit);
+                    return;
+                }
+            } else if (formatImplicit(builder, cv.values, type, meta, tags)) {
+                return;
+            }
+        }
+        Util.listFormatToLimit(builder, conditions.get(lastIndex).values, type, meta, tags, limit);
+    }
+
+    @Override
+    public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+        if (tags == null || conditions.isEmpty()) {
+            return;
+        }
+        Map<String, String> map = null; // only retrieved if there is an explicit condition
+        int lastIndex = conditions.size() - 1;
+        for (int i = 0; i < lastIndex; i++) {
+            ConditionalValue cv = conditions.get(i);
+            if (cv.condition != null) {
+                if (map == null) {
+                    map = tags.asMap();
+                    if (map == null) {
+                        return;
                     }
                 }
+                if (cv.condition.eval(type, meta, map)) {
+                    formatValuesFrom(builder, cv.values, type, meta, tags);
+                    return;
+                }
+            } else if (formatImplicitFrom(builder, cv.values, type, meta, tags)) {
+                return;
+            }
+        }
+        formatValuesFrom(builder, conditions.get(lastIndex).values, type, meta, tags);
+    }
+
+    /**
+     * Format a list of formatters reading tags from a TagSource
+     * 
+     * @param builder the StringBuilder to append to
+     * @param values the formatters
+     * @param type object type
+     * @param meta object meta
+     * @param tags object tags
+     */
+    static void formatValuesFrom(@NotNull StringBuilder builder, @NotNull List<Formatter> values, @NotNull Type type, @Nullable Meta meta,
+            @NotNull TagSource tags) {
+        for (Formatter f : values) {
+            f.formatFrom(builder, type, meta, tags);
+        }
+    }
+
+    /**
+     * Format the values of an implicit condition reading tags from a TagSource
+     * 
+     * @param builder the StringBuilder to append to, will be reset to its original length if the condition is false
+     * @param values the formatters
+     * @param type object type
+     * @param meta object meta
+     * @param tags object tags
+     * @return true if the condition was true and output was appended to builder
+     */
+    static boolean formatImplicitFrom(@NotNull StringBuilder builder, @NotNull List<Formatter> values, @NotNull Type type, @Nullable Meta meta,
+            @NotNull TagSource tags) {
+        final int start = builder.length();
+        for (Formatter f : values) {
+            final int length = builder.length();
+            f.formatFrom(builder, type, meta, tags);
+            if (builder.length() == length) {
+                builder.setLength(start);
+                return false;
+            }
+        }
+        return builder.length() > start;
+    }
+
+    /**
+     * Format the values of an implicit condition
+     * 
+     * The condition is true if none of the formatters produce an empty result
+     * 
+     * @param builder the StringBuilder to append to, will be reset to its original length if the condition is false
+     * @param values the formatters
+     * @param type object type
+     * @param meta object meta
+     * @param tags object tags
+     * @return true if the condition was true and output was appended to builder
+     */
+    static boolean formatImplicit(@NotNull StringBuilder builder, @NotNull List<Formatter> values, @NotNull Type type, @Nullable Meta meta,
+            @NotNull Map<String, String> tags) {
+        final int start = builder.length();
+        for (Formatter f : values) {
+            final int length = builder.length();
+            f.formatTo(builder, type, meta, tags);
+            if (builder.length() == length) {
+                builder.setLength(start);
+                return false;
             }
         }
-        return Util.listFormat(conditions.get(lastIndex).values, type, meta, tags);
+        return builder.length() > start;
+    }
+
+    @Override
+    public int hashCode() {
+        return conditions.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return conditions.equals(((Conditional) obj).conditions);
     }
 
     @Override
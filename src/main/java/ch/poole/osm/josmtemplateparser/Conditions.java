@@ -0,0 +1,143 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Analysis of parsed JOSM filter conditions
+ *
+ * The Condition classes don't expose their structure, so simple conditions are recognized from their source and the
+ * result is confirmed by evaluating the parsed Condition against probe tags.
+ *
+ * @author simon
+ *
+ */
+final class Conditions {
+
+    // the recognized subset of the filter grammar, see equality
+    private static final String  UNQUOTED = "([\\p{L}\\p{N}_][\\p{L}\\p{N}_\\-]*)";
+    private static final String  QUOTED   = "\"([\\p{L}\\p{N}_\\-:]+(?: [\\p{L}\\p{N}_\\-:]+)*)\"";
+    private static final Pattern EQUALITY = Pattern.compile("^(?:" + QUOTED + "|" + UNQUOTED + ")\\s*=\\s*(?:" + QUOTED + "|" + UNQUOTED + ")$");
+
+    private static final String PROBE_SUFFIX = "\0";
+
+    /**
+     * A key = value test
+     */
+    static final class Equality {
+        final String key;
+        final String value;
+
+        /**
+         * Construct a new instance
+         *
+         * @param key the key
+         * @param value the value
+         */
+        Equality(@NotNull String key, @NotNull String value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Private constructor
+     */
+    private Conditions() {
+        // nothing
+    }
+
+    /**
+     * Check if a condition is an exact, case sensitive, test for a tag
+     *
+     * Only a closed subset of the filter grammar is recognized: key = value where key and value are either an unquoted
+     * word of letters, digits, underscores and hyphens that doesn't start with a hyphen, or a double quoted string of
+     * such characters, colons and single spaces between them. Escapes, wildcards, regular expression characters, numeric
+     * comparisons and any other operators are never recognized. Values are compared as strings, admin_level = 2 doesn't
+     * match 02. The result is additionally confirmed by evaluating the parsed Condition against probe tags.
+     *
+     * @param source the source of the condition
+     * @param condition the parsed condition
+     * @return an Equality object or null if the condition is something else or couldn't be verified
+     */
+    @Nullable
+    static Equality equality(@Nullable String source, @Nullable Condition condition) {
+        if (source == null || condition == null) {
+            return null;
+        }
+        Matcher matcher = EQUALITY.matcher(source.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        String key = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+        String value = matcher.group(3) != null ? matcher.group(3) : matcher.group(4);
+        try {
+            for (Type type : Type.values()) {
+                if (!condition.eval(type, null, Collections.singletonMap(key, value))) {
+                    return null;
+                }
+            }
+            if (condition.eval(Type.NODE, null, new HashMap<>()) || condition.eval(Type.NODE, null, Collections.singletonMap(key, value + PROBE_SUFFIX))
+                    || condition.eval(Type.NODE, null, Collections.singletonMap(key + PROBE_SUFFIX, value))
+                    || condition.eval(Type.NODE, null, Collections.singletonMap(key, ""))) {
+                return null;
+            }
+            String swapped = swapCase(value);
+            if (!swapped.equals(value) && condition.eval(Type.NODE, null, Collections.singletonMap(key, swapped))) {
+                return null;
+            }
+            swapped = swapCase(key);
+            if (!swapped.equals(key) && condition.eval(Type.NODE, null, Collections.singletonMap(swapped, value))) {
+                return null;
+            }
+        } catch (RuntimeException rex) { // NOSONAR conditions may need a Meta object
+            return null;
+        }
+        return new Equality(key, value);
+    }
+
+    /**
+     * Check if two conditions are the same
+     *
+     * Conditions don't implement equals, conditions with a source are compared by their source, others by identity
+     *
+     * @param c1 the first Condition or null
+     * @param source1 the source of c1 or null
+     * @param c2 the second Condition or null
+     * @param source2 the source of c2 or null
+     * @return true if the conditions are the same
+     */
+    static boolean same(@Nullable Condition c1, @Nullable String source1, @Nullable Condition c2, @Nullable String source2) {
+        if (c1 == c2) {
+            return true;
+        }
+        if (c1 == null || c2 == null) {
+            return false;
+        }
+        return source1 != null && source1.equals(source2);
+    }
+
+    /**
+     * Swap the case of all characters
+     *
+     * @param s the input String
+     * @return s with upper and lower case swapped
+     */
+    @NotNull
+    private static String swapCase(@NotNull String s) {
+        StringBuilder builder = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            builder.append(Character.isUpperCase(c) ? Character.toLowerCase(c) : Character.toUpperCase(c));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Meta;
+
+/**
+ * Thread safe cache for the display values of {%key} tags
+ *
+ * Values are cached by key and then by value, this assumes that {@link Meta#displayValue(String, String)} only depends
+ * on the key and value and the current settings, not on the element. Keys with more distinct values than the per key
+ * limit, for example name, are simply not cached beyond the limit so that the cache stays small. The cache can't
+ * detect when display values change, callers must call {@link #invalidate()} when the locale or the presets change.
+ * The statistics are kept in LongAdders so that counting doesn't contend between threads.
+ *
+ * @author simon
+ *
+ */
+public final class DisplayValueCache {
+
+    static final int DEFAULT_MAX_KEYS   = 256;
+    static final int DEFAULT_MAX_VALUES = 512;
+
+    private final Map<String, Map<String, String>> cache  = new ConcurrentHashMap<>();
+    private final LongAdder                        hits   = new LongAdder();
+    private final LongAdder                        misses = new LongAdder();
+    private final int                              maxKeys;
+    private final int                              maxValues;
+
+    /**
+     * Construct a new cache with default limits
+     */
+    public DisplayValueCache() {
+        this(DEFAULT_MAX_KEYS, DEFAULT_MAX_VALUES);
+    }
+
+    /**
+     * Construct a new cache
+     *
+     * @param maxKeys the maximum number of keys
+     * @param maxValues the maximum number of values cached per key
+     */
+    public DisplayValueCache(int maxKeys, int maxValues) {
+        if (maxKeys < 1 || maxValues < 1) {
+            throw new IllegalArgumentException("maxKeys and maxValues must be at least 1");
+        }
+        this.maxKeys = maxKeys;
+        this.maxValues = maxValues;
+    }
+
+    /**
+     * Get the display value for a tag
+     *
+     * @param meta the Meta object used to determine the display value if it isn't cached
+     * @param key the key
+     * @param value the value
+     * @return the display value
+     */
+    public String get(@NotNull Meta meta, @NotNull String key, @NotNull String value) {
+        Map<String, String> values = cache.get(key);
+        if (values != null) {
+            String display = values.get(value);
+            if (display != null) {
+                hits.increment();
+                return display;
+            }
+        } else if (cache.size() < maxKeys) {
+            values = cache.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        }
+        misses.increment();
+        String display = meta.displayValue(key, value);
+        if (values != null && display != null && values.size() < maxValues) {
+            values.putIfAbsent(value, display);
+        }
+        return display;
+    }
+
+    /**
+     * Remove all cached display values, this doesn't reset the statistics
+     */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * Get the number of cached display values
+     *
+     * @return the number of entries over all keys
+     */
+    public int size() {
+        int size = 0;
+        for (Map<String, String> values : cache.values()) {
+            size += values.size();
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of lookups that found a cached display value
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of lookups that required calling the Meta object
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get a version of a formatter that uses this cache
+     *
+     * @param f the Formatter
+     * @return a CachedDisplayTag if f is a {%key} tag, otherwise f
+     */
+    @NotNull
+    Formatter bind(@NotNull Formatter f) {
+        if (f instanceof Tag && ((Tag) f).useDisplayValue() && !(f instanceof SlotTag) && !(f instanceof CachedDisplayTag)) {
+            return new CachedDisplayTag(((Tag) f).getKey(), this);
+        }
+        return f;
+    }
+
+    /**
+     * {%key} tag that looks up its display value in a DisplayValueCache
+     */
+    static final class CachedDisplayTag extends Tag {
+
+        private final DisplayValueCache cache;
+
+        /**
+         * Construct a new instance
+         *
+         * @param key the key
+         * @param cache the DisplayValueCache
+         */
+        CachedDisplayTag(@NotNull String key, @NotNull DisplayValueCache cache) {
+            super(key, true);
+            this.cache = cache;
+        }
+
+        @Override
+        @NotNull
+        String displayValue(@Nullable Meta meta, @NotNull String key, @NotNull String value) {
+            return meta != null ? cache.get(meta, key, value) : value;
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return super.equals(obj) && cache == ((CachedDisplayTag) obj).cache;
+        }
+    }
+}
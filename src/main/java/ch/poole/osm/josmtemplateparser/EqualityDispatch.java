@@ -0,0 +1,239 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Conditional with runs of key = value tests on the same key replaced by a single lookup
+ *
+ * For ?{ admin_level = 2 'NUTS 1' | admin_level = 4 'NUTS 2' | ... } the value of admin_level is looked up in a Map
+ * from value to branch, if it isn't found evaluation continues after the run. Conditions that can't be recognized are
+ * evaluated sequentially as in {@link Conditional}.
+ *
+ * @author simon
+ *
+ */
+final class EqualityDispatch implements Formatter {
+
+    static final int MIN_CHAIN_LENGTH = 3;
+
+    /**
+     * A run of equality tests
+     */
+    private static final class Chain {
+        final String               key;
+        final int                  slot;
+        final Map<String, Integer> targets = new HashMap<>();
+        int                        end;
+
+        /**
+         * Construct a new chain
+         *
+         * @param key the key that is tested
+         * @param slot the slot of the key or -1
+         */
+        Chain(@NotNull String key, int slot) {
+            this.key = key;
+            this.slot = slot;
+        }
+    }
+
+    private final Conditional       original;
+    private final Condition[]       conditions;
+    private final List<Formatter>[] values;
+    private final Chain[]           chains;    // non-null at the first branch of a run
+    private final int               lastIndex;
+
+    /**
+     * Construct a new instance
+     *
+     * @param original the Conditional
+     * @param values the values of the branches
+     * @param chains the runs of equality tests indexed by their first branch
+     */
+    private EqualityDispatch(@NotNull Conditional original, @NotNull List<Formatter>[] values, @NotNull Chain[] chains) {
+        this.original = original;
+        List<Conditional.ConditionalValue> branches = original.getConditions();
+        conditions = new Condition[branches.size()];
+        for (int i = 0; i < conditions.length; i++) {
+            conditions[i] = branches.get(i).condition;
+        }
+        this.values = values;
+        this.chains = chains;
+        lastIndex = conditions.length - 1;
+    }
+
+    /**
+     * Replace conditionals containing runs of equality tests, recursing in to the values of conditionals
+     *
+     * @param formatters the formatters
+     * @param dictionary a KeyDictionary if the keys should be bound to slots or null
+     * @return a new List of Formatter
+     */
+    @NotNull
+    static List<Formatter> apply(@NotNull List<Formatter> formatters, @Nullable KeyDictionary dictionary) {
+        List<Formatter> result = new ArrayList<>(formatters.size());
+        for (Formatter f : formatters) {
+            result.add(f instanceof Conditional ? apply((Conditional) f, dictionary) : f);
+        }
+        return result;
+    }
+
+    /**
+     * Replace a conditional if it contains runs of equality tests
+     *
+     * @param conditional the Conditional
+     * @param dictionary a KeyDictionary if the keys should be bound to slots or null
+     * @return an EqualityDispatch or a Conditional
+     */
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private static Formatter apply(@NotNull Conditional conditional, @Nullable KeyDictionary dictionary) {
+        List<Conditional.ConditionalValue> branches = conditional.getConditions();
+        final int size = branches.size();
+        List<Formatter>[] values = new List[size];
+        Conditions.Equality[] equalities = new Conditions.Equality[size];
+        for (int i = 0; i < size; i++) {
+            Conditional.ConditionalValue cv = branches.get(i);
+            values[i] = apply(cv.values, dictionary);
+            if (i < size - 1) { // the last branch is never tested
+                equalities[i] = Conditions.equality(cv.source, cv.condition);
+            }
+        }
+        Chain[] chains = new Chain[size];
+        boolean found = false;
+        int i = 0;
+        while (i < size) {
+            int end = i;
+            while (end < size && equalities[end] != null && equalities[end].key.equals(equalities[i].key)) {
+                end++;
+            }
+            if (end - i >= MIN_CHAIN_LENGTH) {
+                String key = equalities[i].key;
+                Chain chain = new Chain(key, dictionary != null ? dictionary.slot(key) : -1);
+                for (int j = i; j < end; j++) {
+                    chain.targets.putIfAbsent(equalities[j].value, j); // the first matching branch wins
+                }
+                chain.end = end;
+                chains[i] = chain;
+                found = true;
+                i = end;
+            } else {
+                i = Math.max(end, i + 1);
+            }
+        }
+        if (found) {
+            return new EqualityDispatch(conditional, values, chains);
+        }
+        Conditional result = new Conditional();
+        for (int j = 0; j < size; j++) {
+            Conditional.ConditionalValue cv = branches.get(j);
+            result.add(cv.condition, cv.source, values[j]);
+        }
+        return result;
+    }
+
+    @Override
+    @NotNull
+    public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        StringBuilder builder = new StringBuilder();
+        formatTo(builder, type, meta, tags);
+        return builder.toString();
+    }
+
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        formatTo(builder, type, meta, tags, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Implicit conditions are always evaluated completely, as in {@link Conditional}
+     */
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags, int limit) {
+        if (tags == null || lastIndex < 0) {
+            return;
+        }
+        int i = 0;
+        while (i < lastIndex) {
+            Chain chain = chains[i];
+            if (chain != null) {
+                String value = tags.get(chain.key);
+                Integer target = value != null ? chain.targets.get(value) : null;
+                if (target != null) {
+                    Util.listFormatToLimit(builder, values[target], type, meta, tags, limit);
+                    return;
+                }
+                i = chain.end;
+                continue;
+            }
+            if (conditions[i] != null) {
+                if (conditions[i].eval(type, meta, tags)) {
+                    Util.listFormatToLimit(builder, values[i], type, meta, tags, limit);
+                    return;
+                }
+            } else if (Conditional.formatImplicit(builder, values[i], type, meta, tags)) {
+                return;
+            }
+            i++;
+        }
+        Util.listFormatToLimit(builder, values[lastIndex], type, meta, tags, limit);
+    }
+
+    @Override
+    public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+        if (tags == null || lastIndex < 0) {
+            return;
+        }
+        Map<String, String> map = null; // only retrieved if needed
+        int i = 0;
+        while (i < lastIndex) {
+            Chain chain = chains[i];
+            if (chain != null) {
+                String value;
+                if (chain.slot >= 0) {
+                    value = tags.get(chain.slot);
+                } else {
+                    if (map == null && (map = tags.asMap()) == null) { // NOSONAR
+                        return;
+                    }
+                    value = map.get(chain.key);
+                }
+                Integer target = value != null ? chain.targets.get(value) : null;
+                if (target != null) {
+                    Conditional.formatValuesFrom(builder, values[target], type, meta, tags);
+                    return;
+                }
+                i = chain.end;
+                continue;
+            }
+            if (conditions[i] != null) {
+                if (map == null && (map = tags.asMap()) == null) { // NOSONAR
+                    return;
+                }
+                if (conditions[i].eval(type, meta, map)) {
+                    Conditional.formatValuesFrom(builder, values[i], type, meta, tags);
+                    return;
+                }
+            } else if (Conditional.formatImplicitFrom(builder, values[i], type, meta, tags)) {
+                return;
+            }
+            i++;
+        }
+        Conditional.formatValuesFrom(builder, values[lastIndex], type, meta, tags);
+    }
+
+    @Override
+    public String toString() {
+        return original.toString();
+    }
+}
@@ -0,0 +1,33 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.io.Serializable;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.Meta;
+
+/**
+ * Meta that can return the first element matching a condition without determining all matches
+ *
+ * If the Meta object passed to a Formatter implements this interface, searches use
+ * {@link #getFirstMatchingElement(Condition)} instead of {@link Meta#getMatchingElements(Condition)}, which allows the
+ * implementation to stop at the first match.
+ *
+ * @author simon
+ *
+ */
+public interface FirstMatchMeta extends Meta {
+
+    /**
+     * Get the first element matching a condition
+     *
+     * This must return the same element as the first element of the List returned by getMatchingElements
+     *
+     * @param condition the Condition
+     * @return the first matching element or null if there is none
+     */
+    @Nullable
+    Serializable getFirstMatchingElement(@NotNull Condition condition);
+}
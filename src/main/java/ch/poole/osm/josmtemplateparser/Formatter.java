@@ -8,6 +8,12 @@ import org.jetbrains.annotations.Nullable;
 import ch.poole.osm.josmfilterparser.Meta;
 import ch.poole.osm.josmfilterparser.Type;
 
+/**
+ * Formats an OSM element
+ * 
+ * The implementations in this package are immutable once constructed and can be shared between threads, see
+ * {@link TemplateEngine} for formatting many elements in parallel.
+ */
 public interface Formatter {
    
         /**
@@ -21,4 +27,53 @@ public interface Formatter {
         @NotNull
         public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags);
 
+        /**
+         * Format a concrete OSM element appending the output to builder
+         * 
+         * This avoids creating intermediate Strings, implementations should override this if format needs to build
+         * its result
+         * 
+         * @param builder the StringBuilder to append to
+         * @param type the Type of the OSM element
+         * @param meta meta information for the OSM element or null
+         * @param tags tags of the OSM element or null
+         */
+        public default void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            builder.append(format(type, meta, tags));
+        }
+
+        /**
+         * Format a concrete OSM element appending the output to builder, stopping early once builder has reached a
+         * length
+         * 
+         * Output beyond limit may still be appended, callers truncate the result. The default implementation doesn't
+         * stop early, implementations that can produce long output or that contain other formatters should override
+         * this.
+         * 
+         * @param builder the StringBuilder to append to
+         * @param type the Type of the OSM element
+         * @param meta meta information for the OSM element or null
+         * @param tags tags of the OSM element or null
+         * @param limit the length of builder after which no further output is needed
+         */
+        public default void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags,
+                int limit) {
+            formatTo(builder, type, meta, tags);
+        }
+
+        /**
+         * Format a concrete OSM element reading its tags from a TagSource
+         * 
+         * The default implementation uses {@link TagSource#asMap()}, formatters that have been bound to a
+         * {@link KeyDictionary} by {@link CompiledTemplate#compile(java.util.List, KeyDictionary)} read values by slot
+         * 
+         * @param builder the StringBuilder to append to
+         * @param type the Type of the OSM element
+         * @param meta meta information for the OSM element or null
+         * @param tags tags of the OSM element or null
+         */
+        public default void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+            formatTo(builder, type, meta, tags != null ? tags.asMap() : null);
+        }
+
 }
@@ -0,0 +1,109 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Assigns integer slots to tag keys
+ * 
+ * Slots are allocated consecutively from 0 and never change. A dictionary can be shared by any number of templates and
+ * threads, new keys are added when a template that uses them is compiled.
+ * 
+ * @author simon
+ *
+ */
+public final class KeyDictionary {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+    private volatile String[]          keys  = new String[INITIAL_CAPACITY]; // NOSONAR only unused entries are written
+    private int                        size;
+
+    /**
+     * Construct a new empty dictionary
+     */
+    public KeyDictionary() {
+        // nothing
+    }
+
+    /**
+     * Construct a new dictionary with existing keys
+     * 
+     * Key i in the list is assigned slot i, this allows reusing the key encoding of an element store
+     * 
+     * @param keys the initial keys, must not contain duplicates
+     */
+    public KeyDictionary(@NotNull List<String> keys) {
+        for (String key : keys) {
+            if (slots.containsKey(key)) {
+                throw new IllegalArgumentException("Duplicate key " + key);
+            }
+            slot(key);
+        }
+    }
+
+    /**
+     * Get the slot for a key, adding the key if necessary
+     * 
+     * @param key the key
+     * @return the slot
+     */
+    public int slot(@NotNull String key) {
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (this) {
+            slot = slots.get(key);
+            if (slot != null) {
+                return slot;
+            }
+            String[] current = keys;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[size] = key;
+            keys = current; // republish so that readers of the slot see the key
+            slots.put(key, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Get the slot for a key without adding it
+     * 
+     * @param key the key
+     * @return the slot or -1 if the key is not in the dictionary
+     */
+    public int getSlot(@NotNull String key) {
+        Integer slot = slots.get(key);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * Get the key for a slot
+     * 
+     * @param slot the slot
+     * @return the key or null if the slot hasn't been assigned
+     */
+    @Nullable
+    public String getKey(int slot) {
+        String[] current = keys;
+        return slot >= 0 && slot < current.length ? current[slot] : null;
+    }
+
+    /**
+     * Get the number of keys
+     * 
+     * @return the number of keys in the dictionary
+     */
+    public int size() {
+        return slots.size();
+    }
+}
@@ -27,7 +27,43 @@ public class Literal implements Formatter {
     public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
         return value;
     }
+
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        builder.append(value);
+    }
+
+    @Override
+    public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+        builder.append(value);
+    }
     
+    /**
+     * Get the literal value
+     * 
+     * @return the value
+     */
+    @NotNull
+    String getValue() {
+        return value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return value.equals(((Literal) obj).value);
+    }
+
     @Override
     public String toString() {
         return value;
@@ -0,0 +1,93 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * special:localName for a list of preferred languages
+ * 
+ * The keys that are tried are determined once when the handler is created, for de-CH and en these are name:de-CH,
+ * name:de, name:en, name and int_name, per element the first key with a value is used. Register an instance with
+ * {@link SpecialHandlers} or, to serve several languages from one process, with a {@link TemplateEngine} per language.
+ * 
+ * @author simon
+ *
+ */
+public final class LocalNameHandler implements SpecialHandler {
+
+    static final String INT_NAME_KEY = "int_name";
+
+    private final String[] keys;
+
+    /**
+     * Construct a new handler
+     * 
+     * @param languages BCP 47 language tags, for example de-CH, most preferred first
+     */
+    public LocalNameHandler(@NotNull List<String> languages) {
+        Set<String> chain = new LinkedHashSet<>();
+        for (String language : languages) {
+            String tag = language.trim().replace('_', '-');
+            while (!tag.isEmpty()) {
+                chain.add(Special.NAME_KEY + ":" + tag);
+                int dash = tag.lastIndexOf('-');
+                tag = dash > 0 ? tag.substring(0, dash) : "";
+            }
+        }
+        chain.add(Special.NAME_KEY);
+        chain.add(INT_NAME_KEY);
+        keys = chain.toArray(new String[0]);
+    }
+
+    /**
+     * Create a handler for locales
+     * 
+     * @param locales the locales, most preferred first
+     * @return a LocalNameHandler
+     */
+    @NotNull
+    public static LocalNameHandler of(@NotNull Locale... locales) {
+        List<String> languages = new ArrayList<>();
+        for (Locale locale : locales) {
+            languages.add(locale.toLanguageTag());
+        }
+        return new LocalNameHandler(languages);
+    }
+
+    /**
+     * Get the keys that are tried
+     * 
+     * @return an unmodifiable List of keys in the order they are tried
+     */
+    @NotNull
+    public List<String> getKeys() {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    @Override
+    public void append(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        Map<String, String> t = meta != null ? meta.getTags() : null;
+        if (t == null || t.isEmpty()) {
+            return;
+        }
+        for (String key : keys) {
+            String value = t.get(key);
+            if (value != null) {
+                builder.append(value);
+                return;
+            }
+        }
+    }
+}
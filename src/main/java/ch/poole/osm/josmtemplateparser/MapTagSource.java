@@ -0,0 +1,42 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * TagSource backed by a Map
+ * 
+ * @author simon
+ *
+ */
+public final class MapTagSource implements TagSource {
+
+    private final KeyDictionary       dictionary;
+    private final Map<String, String> tags;
+
+    /**
+     * Construct a new TagSource
+     * 
+     * @param dictionary the KeyDictionary the template was compiled against
+     * @param tags the tags of the element
+     */
+    public MapTagSource(@NotNull KeyDictionary dictionary, @NotNull Map<String, String> tags) {
+        this.dictionary = dictionary;
+        this.tags = tags;
+    }
+
+    @Override
+    @Nullable
+    public String get(int slot) {
+        String key = dictionary.getKey(slot);
+        return key != null ? tags.get(key) : null;
+    }
+
+    @Override
+    @NotNull
+    public Map<String, String> asMap() {
+        return tags;
+    }
+}
@@ -0,0 +1,321 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * A template compiled to a single MethodHandle
+ *
+ * The template is simplified with {@link Optimizer} and then turned in to a tree of method handles, sequences are
+ * combined with foldArguments and explicit conditions with guardWithTest. Implicit conditions, searches and formatters
+ * that are not part of this library are called through their Formatter. Only Java 8 method handle combinators are
+ * used. Instances are immutable and can be shared between threads.
+ * 
+ * The JIT only inlines a method handle tree in to the calling code if the root handle is a constant. When formatting
+ * through {@link #formatTo(StringBuilder, Type, Meta, Map)} the handle is read from a final instance field, which the
+ * JVM doesn't treat as a constant, so the tree is run through the generic method handle invoker. Templates that are
+ * known when a class is initialized can store {@link #getHandle()} in a static final field and call it with
+ * invokeExact, then the whole tree can be inlined:
+ * 
+ * <pre>
+ * private static final MethodHandle LABEL = MethodHandleTemplate.compile(JosmTemplateParser.parse("{ref} {name}")).getHandle();
+ * 
+ * LABEL.invokeExact(builder, type, meta, tags);
+ * </pre>
+ *
+ * @author simon
+ *
+ */
+public final class MethodHandleTemplate implements Formatter {
+
+    private static final MethodType NODE_TYPE = MethodType.methodType(void.class, StringBuilder.class, Type.class, Meta.class, Map.class);
+    private static final MethodType TEST_TYPE = NODE_TYPE.changeReturnType(boolean.class);
+
+    private static final MethodHandle NOTHING;
+    private static final MethodHandle LITERAL;
+    private static final MethodHandle TAG;
+    private static final MethodHandle DISPLAY_TAG;
+    private static final MethodHandle NO_TAGS;
+    private static final MethodHandle CONDITION;
+    private static final MethodHandle IMPLICIT;
+    private static final MethodHandle FORMAT_TO;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            NOTHING = lookup.findStatic(MethodHandleTemplate.class, "nothing", NODE_TYPE);
+            LITERAL = lookup.findStatic(MethodHandleTemplate.class, "literal", NODE_TYPE.insertParameterTypes(0, String.class));
+            TAG = lookup.findStatic(MethodHandleTemplate.class, "tag", NODE_TYPE.insertParameterTypes(0, String.class));
+            DISPLAY_TAG = lookup.findStatic(MethodHandleTemplate.class, "displayTag", NODE_TYPE.insertParameterTypes(0, String.class));
+            NO_TAGS = lookup.findStatic(MethodHandleTemplate.class, "noTags", TEST_TYPE);
+            CONDITION = lookup.findStatic(MethodHandleTemplate.class, "condition", TEST_TYPE.insertParameterTypes(0, Condition.class));
+            IMPLICIT = lookup.findStatic(MethodHandleTemplate.class, "implicit", TEST_TYPE.insertParameterTypes(0, List.class));
+            FORMAT_TO = lookup.findVirtual(Formatter.class, "formatTo", NODE_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final List<Formatter> formatters;
+    private final MethodHandle    handle;
+
+    /**
+     * Construct a new template
+     *
+     * @param formatters the original formatters
+     * @param handle the compiled handle
+     */
+    private MethodHandleTemplate(@NotNull List<Formatter> formatters, @NotNull MethodHandle handle) {
+        this.formatters = formatters;
+        this.handle = handle;
+    }
+
+    /**
+     * Compile a parsed template
+     *
+     * @param formatters the output of the parser
+     * @return a MethodHandleTemplate
+     */
+    @NotNull
+    public static MethodHandleTemplate compile(@NotNull List<Formatter> formatters) {
+        List<Formatter> copy = Collections.unmodifiableList(new ArrayList<>(formatters));
+        return new MethodHandleTemplate(copy, sequence(Optimizer.optimize(copy)));
+    }
+
+    /**
+     * Get the formatters this template was compiled from
+     *
+     * @return an unmodifiable List of Formatter
+     */
+    @NotNull
+    public List<Formatter> getFormatters() {
+        return formatters;
+    }
+
+    /**
+     * Get the root handle of the template
+     *
+     * The handle has the type (StringBuilder, Type, Meta, Map)void and the same arguments as
+     * {@link #formatTo(StringBuilder, Type, Meta, Map)}
+     *
+     * @return the MethodHandle
+     */
+    @NotNull
+    public MethodHandle getHandle() {
+        return handle;
+    }
+
+    @Override
+    @NotNull
+    public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        StringBuilder builder = new StringBuilder();
+        formatTo(builder, type, meta, tags);
+        return builder.toString();
+    }
+
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        try {
+            handle.invokeExact(builder, type, meta, tags);
+        } catch (RuntimeException | Error e) { // NOSONAR
+            throw e;
+        } catch (Throwable e) { // NOSONAR the handles don't throw checked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Build a handle that runs the handles for a list of formatters in order
+     *
+     * The handles are combined as a balanced tree so that the nesting depth stays low for large templates
+     *
+     * @param formatters the formatters
+     * @return a MethodHandle
+     */
+    @NotNull
+    private static MethodHandle sequence(@NotNull List<Formatter> formatters) {
+        if (formatters.isEmpty()) {
+            return NOTHING;
+        }
+        if (formatters.size() == 1) {
+            return node(formatters.get(0));
+        }
+        int middle = formatters.size() / 2;
+        return MethodHandles.foldArguments(sequence(formatters.subList(middle, formatters.size())), sequence(formatters.subList(0, middle)));
+    }
+
+    /**
+     * Build the handle for a single formatter
+     *
+     * @param f the Formatter
+     * @return a MethodHandle
+     */
+    @NotNull
+    private static MethodHandle node(@NotNull Formatter f) {
+        if (f instanceof Literal) {
+            return MethodHandles.insertArguments(LITERAL, 0, ((Literal) f).getValue());
+        }
+        if (f instanceof Tag) {
+            return MethodHandles.insertArguments(((Tag) f).useDisplayValue() ? DISPLAY_TAG : TAG, 0, ((Tag) f).getKey());
+        }
+        if (f instanceof Conditional) {
+            return conditional((Conditional) f);
+        }
+        return FORMAT_TO.bindTo(f);
+    }
+
+    /**
+     * Build the handle for a conditional
+     *
+     * Implicit branches are tests that append their output when they succeed
+     *
+     * @param conditional the Conditional
+     * @return a MethodHandle
+     */
+    @NotNull
+    private static MethodHandle conditional(@NotNull Conditional conditional) {
+        List<Conditional.ConditionalValue> branches = conditional.getConditions();
+        if (branches.isEmpty()) {
+            return NOTHING;
+        }
+        int lastIndex = branches.size() - 1;
+        MethodHandle result = sequence(branches.get(lastIndex).values);
+        for (int i = lastIndex - 1; i >= 0; i--) {
+            Conditional.ConditionalValue cv = branches.get(i);
+            if (cv.condition != null) {
+                result = MethodHandles.guardWithTest(CONDITION.bindTo(cv.condition), sequence(cv.values), result);
+            } else {
+                result = MethodHandles.guardWithTest(IMPLICIT.bindTo(cv.values), NOTHING, result);
+            }
+        }
+        return MethodHandles.guardWithTest(NO_TAGS, NOTHING, result);
+    }
+
+    /**
+     * Do nothing
+     *
+     * @param builder the StringBuilder to append to
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element or null
+     */
+    private static void nothing(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        // nothing
+    }
+
+    /**
+     * Append a literal
+     *
+     * @param value the literal
+     * @param builder the StringBuilder to append to
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element or null
+     */
+    private static void literal(@NotNull String value, @NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta,
+            @Nullable Map<String, String> tags) {
+        builder.append(value);
+    }
+
+    /**
+     * Append the value of a tag
+     *
+     * @param key the key
+     * @param builder the StringBuilder to append to
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element or null
+     */
+    private static void tag(@NotNull String key, @NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta,
+            @Nullable Map<String, String> tags) {
+        if (tags != null) {
+            String value = tags.get(key);
+            if (value != null) {
+                builder.append(value);
+            }
+        }
+    }
+
+    /**
+     * Append the display value of a tag
+     *
+     * @param key the key
+     * @param builder the StringBuilder to append to
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element or null
+     */
+    private static void displayTag(@NotNull String key, @NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta,
+            @Nullable Map<String, String> tags) {
+        if (tags != null) {
+            String value = tags.get(key);
+            if (value != null) {
+                builder.append(meta != null ? meta.displayValue(key, value) : value);
+            }
+        }
+    }
+
+    /**
+     * Check if there are no tags
+     *
+     * @param builder the StringBuilder to append to
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element or null
+     * @return true if tags is null
+     */
+    private static boolean noTags(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        return tags == null;
+    }
+
+    /**
+     * Evaluate an explicit condition
+     *
+     * @param condition the Condition
+     * @param builder the StringBuilder to append to
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element, not null as conditionals check this first
+     * @return the result of the condition
+     */
+    private static boolean condition(@NotNull Condition condition, @NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta,
+            @Nullable Map<String, String> tags) {
+        return condition.eval(type, meta, tags);
+    }
+
+    /**
+     * Format the values of an implicit condition
+     *
+     * @param values the formatters
+     * @param builder the StringBuilder to append to
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element, not null as conditionals check this first
+     * @return true if the condition was true and output was appended to builder
+     */
+    private static boolean implicit(@NotNull List<Formatter> values, @NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta,
+            @Nullable Map<String, String> tags) {
+        return Conditional.formatImplicit(builder, values, type, meta, tags); // NOSONAR
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Formatter f : formatters) {
+            builder.append(f.toString());
+        }
+        return builder.toString();
+    }
+}
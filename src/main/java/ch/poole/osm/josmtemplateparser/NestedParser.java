@@ -0,0 +1,93 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.JosmFilterParser;
+
+/**
+ * Parse the quoted templates and the conditions inside conditionals and searches
+ *
+ * The outer parser captures a quoted template as a string and removes one level of escaping, the text is then lexed
+ * again from that string, so a template nested n levels deep is lexed n + 1 times. Building the trees in a single
+ * lexing pass would need a lexical state per escape level, which the grammar can't express for arbitrary nesting. The
+ * parsers read directly from the captured strings and are re-initialized for each use, each nesting level has its own
+ * instance. The template parser uses a smaller character buffer than the JavaCC default as nested templates are
+ * typically short.
+ *
+ * @author simon
+ *
+ */
+final class NestedParser {
+
+    private static final int BUFFER_SIZE = 256;
+
+    private JosmTemplateParser             templateParser;
+    private JosmTemplateParserTokenManager tokenManager;
+    private SimpleCharStream               stream;
+    private JosmFilterParser               filterParser;
+
+    /**
+     * Parse a nested template
+     *
+     * @param template the template with the quoting removed
+     * @return a List of Formatter
+     * @throws ParseException if the template can't be parsed
+     */
+    @NotNull
+    List<Formatter> template(@NotNull String template) throws ParseException {
+        CharSequenceReader reader = new CharSequenceReader(template);
+        if (templateParser == null) {
+            stream = new SimpleCharStream(reader, 1, 1, BUFFER_SIZE);
+            tokenManager = new JosmTemplateParserTokenManager(stream);
+            templateParser = new JosmTemplateParser(tokenManager);
+        } else {
+            stream.ReInit(reader, 1, 1, BUFFER_SIZE);
+            tokenManager.ReInit(stream);
+            templateParser.ReInit(tokenManager);
+        }
+        return templateParser.formatters();
+    }
+
+    /**
+     * Parse the value of a conditional, an empty value will produce an empty Literal
+     *
+     * @param value the value with the quoting removed
+     * @return a List of Formatter
+     * @throws ParseException if the value can't be parsed
+     */
+    @NotNull
+    List<Formatter> value(@NotNull String value) throws ParseException {
+        if ("".equals(value.trim())) {
+            List<Formatter> result = new ArrayList<>();
+            result.add(new Literal(""));
+            return result;
+        }
+        return template(value);
+    }
+
+    /**
+     * Parse a JOSM filter expression
+     *
+     * @param expression the expression
+     * @return a Condition
+     * @throws ParseException if the expression can't be parsed
+     */
+    @NotNull
+    Condition condition(@NotNull String expression) throws ParseException {
+        CharSequenceReader reader = new CharSequenceReader(expression.trim());
+        try {
+            if (filterParser == null) {
+                filterParser = new JosmFilterParser(reader);
+            } else {
+                filterParser.ReInit(reader);
+            }
+            return filterParser.condition();
+        } catch (ch.poole.osm.josmfilterparser.ParseException pex) {
+            throw new ParseException("Search expression " + expression + " " + pex.getMessage());
+        }
+    }
+}
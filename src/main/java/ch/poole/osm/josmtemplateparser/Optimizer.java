@@ -0,0 +1,168 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Simplify parsed templates
+ *
+ * The optimized template produces the same output as the original for all inputs:
+ * <ul>
+ * <li>adjacent literals are merged and empty literals removed</li>
+ * <li>implicit conditional branches that contain an empty literal can never be true and are removed</li>
+ * <li>branches after an implicit branch that only consists of literals can never be reached and are removed</li>
+ * <li>conditionals that are left with a single branch are reduced to that branch, as the output of a Conditional
+ * depends on the tags being non-null, the result is still a Conditional</li>
+ * </ul>
+ * Formatters that are not part of this library are left as is.
+ *
+ * @author simon
+ *
+ */
+public final class Optimizer {
+
+    /**
+     * Private constructor
+     */
+    private Optimizer() {
+        // nothing
+    }
+
+    /**
+     * Optimize a parsed template
+     *
+     * @param formatters the output of the parser
+     * @return a new List of Formatter
+     */
+    @NotNull
+    public static List<Formatter> optimize(@NotNull List<Formatter> formatters) {
+        List<Formatter> result = optimize(formatters, false);
+        return result != null ? result : new ArrayList<>();
+    }
+
+    /**
+     * Optimize a List of formatters
+     *
+     * In the value of an implicit condition every formatter has to produce output for the condition to be true, a
+     * formatter that never produces output makes the whole value dead.
+     *
+     * @param formatters the formatters
+     * @param implicit true if the formatters are the value of an implicit condition
+     * @return a new List of Formatter or null if implicit is true and the condition can never be true
+     */
+    @Nullable
+    private static List<Formatter> optimize(@NotNull List<Formatter> formatters, boolean implicit) {
+        if (implicit && formatters.isEmpty()) {
+            return null;
+        }
+        List<Formatter> result = new ArrayList<>(formatters.size());
+        StringBuilder literal = new StringBuilder();
+        for (Formatter f : formatters) {
+            if (f instanceof Literal) {
+                String value = ((Literal) f).getValue();
+                if (implicit && "".equals(value)) {
+                    return null;
+                }
+                literal.append(value);
+                continue;
+            }
+            Formatter optimized = optimize(f);
+            if (optimized != null) {
+                addLiteral(result, literal);
+                result.add(optimized);
+            } else if (implicit) {
+                return null;
+            }
+        }
+        addLiteral(result, literal);
+        return result;
+    }
+
+    /**
+     * Add the accumulated literal to a List if it isn't empty
+     *
+     * @param result the List
+     * @param literal the literal, will be reset
+     */
+    private static void addLiteral(@NotNull List<Formatter> result, @NotNull StringBuilder literal) {
+        if (literal.length() > 0) {
+            result.add(new Literal(literal.toString()));
+            literal.setLength(0);
+        }
+    }
+
+    /**
+     * Optimize a single formatter
+     *
+     * @param f the formatter
+     * @return an optimized formatter, f, or null if the formatter never produces output
+     */
+    @Nullable
+    private static Formatter optimize(@NotNull Formatter f) {
+        if (f instanceof Conditional) {
+            return optimize((Conditional) f);
+        }
+        if (f instanceof Search) {
+            Search search = (Search) f;
+            return new Search(search.getCondition(), search.getSource(), optimize(search.getFormatters()));
+        }
+        return f;
+    }
+
+    /**
+     * Remove dead branches from a conditional
+     *
+     * @param conditional the Conditional
+     * @return a new Conditional or null if it never produces output
+     */
+    @Nullable
+    private static Conditional optimize(@NotNull Conditional conditional) {
+        List<Conditional.ConditionalValue> branches = conditional.getConditions();
+        if (branches.isEmpty()) {
+            return null;
+        }
+        Conditional result = new Conditional();
+        int lastIndex = branches.size() - 1;
+        for (int i = 0; i < lastIndex; i++) {
+            Conditional.ConditionalValue cv = branches.get(i);
+            if (cv.condition != null) {
+                result.add(cv.condition, cv.source, optimize(cv.values));
+                continue;
+            }
+            List<Formatter> values = optimize(cv.values, true);
+            if (values == null) {
+                continue; // never true
+            }
+            result.add(null, null, values);
+            if (isConstant(values)) {
+                return result; // always true, this is effectively the last branch
+            }
+        }
+        Conditional.ConditionalValue last = branches.get(lastIndex);
+        result.add(last.condition, last.source, optimize(last.values));
+        for (Conditional.ConditionalValue cv : result.getConditions()) {
+            if (!cv.values.isEmpty()) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if a List of formatters only contains literals
+     *
+     * @param formatters the formatters
+     * @return true if the output doesn't depend on the element
+     */
+    private static boolean isConstant(@NotNull List<Formatter> formatters) {
+        for (Formatter f : formatters) {
+            if (!(f instanceof Literal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.io.Serializable;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.JosmFilterParser;
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * SearchIndex for searches of the form parent key=value, for example !{parent type=route '{name}'}
+ *
+ * Only expressions where key=value is an exact test as recognized by {@link Conditions#equality(String, Condition)}
+ * are handled, so that the index finds the same parent as the search, other expressions fall back to a normal search.
+ * The parent relations are added per member before formatting, the first parent added that has the tag is returned. The
+ * index isn't thread safe while it is being built, once complete it can be used concurrently without locking.
+ *
+ * @author simon
+ *
+ */
+public class ParentRelationIndex implements SearchIndex {
+
+    private static final Conditions.Equality UNSUPPORTED = new Conditions.Equality("", "");
+    private static final Pattern             PARENT      = Pattern.compile("^parent\\s+(.+)$");
+
+    /**
+     * A parent relation
+     */
+    private static final class Parent {
+        final Serializable        element;
+        final Map<String, String> tags;
+
+        /**
+         * Construct a new instance
+         *
+         * @param element the relation
+         * @param tags the tags of the relation
+         */
+        Parent(@NotNull Serializable element, @NotNull Map<String, String> tags) {
+            this.element = element;
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * Key for a member
+     */
+    private static final class Member {
+        final Type type;
+        final long id;
+
+        /**
+         * Construct a new instance
+         *
+         * @param type the type of the member
+         * @param id the id of the member
+         */
+        Member(@Nullable Type type, long id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(type) + Long.hashCode(id);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Member)) {
+                return false;
+            }
+            Member other = (Member) obj;
+            return id == other.id && type == other.type;
+        }
+    }
+
+    private final Map<Member, List<Parent>>        parents = new HashMap<>();
+    private final Map<String, Conditions.Equality> tests   = new ConcurrentHashMap<>();
+
+    /**
+     * Add a parent relation of an element
+     *
+     * @param memberType the type of the member
+     * @param memberId the id of the member
+     * @param relation the relation, in the form that {@link Meta#wrap(Serializable)} expects
+     * @param relationTags the tags of the relation
+     */
+    public void add(@NotNull Type memberType, long memberId, @NotNull Serializable relation, @NotNull Map<String, String> relationTags) {
+        parents.computeIfAbsent(new Member(memberType, memberId), k -> new ArrayList<>()).add(new Parent(relation, relationTags));
+    }
+
+    @Override
+    public boolean handles(@NotNull String source) {
+        return test(source) != null;
+    }
+
+    /**
+     * Get the key and value tested by a search expression
+     *
+     * @param source the search expression
+     * @return the tested key and value or null if the expression isn't supported
+     */
+    @Nullable
+    private Conditions.Equality test(@NotNull String source) {
+        Conditions.Equality test = tests.computeIfAbsent(source, ParentRelationIndex::parse);
+        return test != UNSUPPORTED ? test : null;
+    }
+
+    /**
+     * Recognize a parent key=value expression
+     *
+     * @param source the search expression
+     * @return the tested key and value or UNSUPPORTED
+     */
+    @NotNull
+    private static Conditions.Equality parse(@NotNull String source) {
+        Matcher matcher = PARENT.matcher(source.trim());
+        if (!matcher.matches()) {
+            return UNSUPPORTED;
+        }
+        String expression = matcher.group(1);
+        try {
+            Condition condition = new JosmFilterParser(new StringReader(expression)).condition();
+            Conditions.Equality equality = Conditions.equality(expression, condition);
+            return equality != null ? equality : UNSUPPORTED;
+        } catch (ch.poole.osm.josmfilterparser.ParseException | RuntimeException e) { // NOSONAR the search will report the error
+            return UNSUPPORTED;
+        }
+    }
+
+    @Override
+    @Nullable
+    public Serializable firstMatch(@NotNull String source, @NotNull Meta context) {
+        Conditions.Equality test = test(source);
+        List<Parent> list = parents.get(new Member(context.getType(), context.getId()));
+        if (test == null || list == null) {
+            return null;
+        }
+        for (Parent parent : list) {
+            if (test.value.equals(parent.tags.get(test.key))) {
+                return parent.element;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,238 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The tag keys of an element that a template uses
+ *
+ * Keys are collected from tags, implicit conditions, explicit conditions that are simple key = value tests and
+ * special:localName. If the template uses special:everything, a condition that can't be analysed, a Formatter
+ * implementation or a SpecialHandler from outside of this library, {@link #needsAllTags()} returns true. Searches use the tags of other
+ * elements and are flagged with {@link #usesSearch()}.
+ *
+ * @author simon
+ *
+ */
+public final class ReferencedKeys {
+
+    private final Set<String> keys = new LinkedHashSet<>();
+    private boolean           allTags;
+    private boolean           search;
+    private boolean           everything;
+    private boolean           unknown;
+
+    /**
+     * Private constructor, use {@link #of(List)}
+     */
+    private ReferencedKeys() {
+        // nothing
+    }
+
+    /**
+     * Determine the keys that a parsed template references
+     *
+     * @param formatters the parsed template
+     * @return a ReferencedKeys instance
+     */
+    @NotNull
+    public static ReferencedKeys of(@NotNull List<Formatter> formatters) {
+        ReferencedKeys result = new ReferencedKeys();
+        result.collect(formatters);
+        return result;
+    }
+
+    /**
+     * Add the keys referenced by a list of formatters
+     *
+     * @param formatters the formatters
+     */
+    private void collect(@NotNull List<Formatter> formatters) {
+        for (Formatter f : formatters) {
+            collect(f);
+        }
+    }
+
+    /**
+     * Add the keys referenced by a formatter
+     *
+     * @param f the formatter
+     */
+    private void collect(@NotNull Formatter f) {
+        if (f instanceof Literal) {
+            return;
+        }
+        if (f instanceof Tag) {
+            keys.add(((Tag) f).getKey());
+        } else if (f instanceof Special) {
+            SpecialHandler handler = ((Special) f).getHandler();
+            if (handler == BuiltinSpecial.EVERYTHING) {
+                allTags = true;
+                everything = true;
+            } else if (handler == BuiltinSpecial.LOCAL_NAME) {
+                keys.add(Special.NAME_KEY);
+            } else if (handler instanceof LocalNameHandler) {
+                keys.addAll(((LocalNameHandler) handler).getKeys());
+            } else if (handler != null && handler != BuiltinSpecial.ID) {
+                allTags = true;
+                unknown = true;
+            }
+        } else if (f instanceof Conditional) {
+            for (Conditional.ConditionalValue cv : ((Conditional) f).getConditions()) {
+                if (cv.condition != null) {
+                    Conditions.Equality equality = Conditions.equality(cv.source, cv.condition);
+                    if (equality != null) {
+                        keys.add(equality.key);
+                    } else {
+                        allTags = true;
+                    }
+                }
+                collect(cv.values);
+            }
+        } else if (f instanceof Search) {
+            search = true;
+        } else if (f instanceof CompiledTemplate) {
+            collect(((CompiledTemplate) f).getFormatters());
+        } else {
+            allTags = true;
+            unknown = true;
+        }
+    }
+
+    /**
+     * Get the referenced keys
+     *
+     * @return an unmodifiable Set of keys
+     */
+    @NotNull
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(keys);
+    }
+
+    /**
+     * Check if the template potentially uses any tag of the element
+     *
+     * @return true if the set of keys is incomplete
+     */
+    public boolean needsAllTags() {
+        return allTags;
+    }
+
+    /**
+     * Check if the template contains a search, that is uses data from other elements
+     *
+     * @return true if the template contains a search
+     */
+    public boolean usesSearch() {
+        return search;
+    }
+
+    /**
+     * Check if the template contains special:everything
+     *
+     * @return true if special:everything is used
+     */
+    boolean usesEverything() {
+        return everything;
+    }
+
+    /**
+     * Check if the template contains Formatter or SpecialHandler implementations that are not part of this library
+     *
+     * @return true if there are unknown formatters
+     */
+    boolean hasUnknownFormatters() {
+        return unknown;
+    }
+
+    /**
+     * Check if the tags of an element are relevant for the template
+     *
+     * If this returns false, formatting the element produces the same output as formatting it with an empty Map of
+     * tags.
+     *
+     * @param tags the tags of the element
+     * @return true if any referenced key is present, or if the keys are not known
+     */
+    public boolean hasReferencedTags(@Nullable Map<String, String> tags) {
+        if (allTags || search) {
+            return true;
+        }
+        if (tags == null || tags.isEmpty()) {
+            return false;
+        }
+        for (String key : keys) {
+            if (tags.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the output of the template can change if the values of some keys change
+     *
+     * Only edits of the tags of the element itself are covered, templates that need all tags or contain a search are
+     * affected by any such edit, as the search may depend on the element. Changes to the elements that a search finds
+     * are never covered, callers have to check {@link #usesSearch()} for that. This gives the same result as
+     * {@link #isAffectedBy(Map, Map)} for the same edit.
+     *
+     * @param changedKeys the keys that have been added, removed or changed
+     * @return true if the output may have changed
+     */
+    public boolean isAffectedBy(@NotNull Set<String> changedKeys) {
+        if (changedKeys.isEmpty()) {
+            return false;
+        }
+        if (allTags || search) {
+            return true;
+        }
+        Set<String> smaller = changedKeys.size() < keys.size() ? changedKeys : keys;
+        Set<String> larger = smaller == keys ? changedKeys : keys;
+        for (String key : smaller) {
+            if (larger.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the output of the template can change between two versions of the tags of an element
+     *
+     * null is treated as an empty Map, the same rules as for {@link #isAffectedBy(Set)} apply, with the changed keys
+     * being those with different values in the two versions.
+     *
+     * @param oldTags the tags before the change or null
+     * @param newTags the tags after the change or null
+     * @return true if the output may have changed
+     */
+    public boolean isAffectedBy(@Nullable Map<String, String> oldTags, @Nullable Map<String, String> newTags) {
+        if (oldTags == newTags) {
+            return false;
+        }
+        Map<String, String> before = oldTags != null ? oldTags : Collections.emptyMap();
+        Map<String, String> after = newTags != null ? newTags : Collections.emptyMap();
+        if (allTags || search) {
+            return !before.equals(after);
+        }
+        for (String key : keys) {
+            if (!Objects.equals(before.get(key), after.get(key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return keys + (allTags ? " all tags" : "") + (search ? " search" : "");
+    }
+}
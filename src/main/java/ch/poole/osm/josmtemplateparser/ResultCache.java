@@ -0,0 +1,253 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Thread safe cache of formatted output
+ *
+ * Output is cached by template, element type, id and version, so this assumes that the version of an element changes
+ * whenever its tags change. For elements that are modified locally without a new version, {@link #invalidate(Type,
+ * long)} has to be called. The tags passed when formatting must be those of the element described by the Meta object.
+ *
+ * Templates containing searches or special:everything, resp. Formatter implementations from outside this library, are
+ * not cached unless requested with {@link #wrap(Formatter, boolean)}, output without a Meta object is never cached.
+ *
+ * @author simon
+ *
+ */
+public class ResultCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final BoundedCache<Key, String> cache;
+    private final AtomicInteger             templateIds = new AtomicInteger();
+
+    /**
+     * Key for the cache
+     */
+    private static final class Key {
+        final int  template;
+        final Type type;
+        final long id;
+        final long version;
+
+        /**
+         * Construct a new key
+         *
+         * @param template the template id
+         * @param type the element type
+         * @param id the element id
+         * @param version the element version
+         */
+        Key(int template, @NotNull Type type, long id, long version) {
+            this.template = template;
+            this.type = type;
+            this.id = id;
+            this.version = version;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 * template + type.hashCode();
+            result = 31 * result + Long.hashCode(id);
+            return 31 * result + Long.hashCode(version);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return template == other.template && type == other.type && id == other.id && version == other.version;
+        }
+    }
+
+    /**
+     * Construct a new cache with the default maximum size and no expiry
+     */
+    public ResultCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Construct a new cache without expiry
+     *
+     * @param maxSize the maximum number of entries
+     */
+    public ResultCache(int maxSize) {
+        cache = new BoundedCache<>(maxSize);
+    }
+
+    /**
+     * Construct a new cache with entries that expire
+     *
+     * @param maxSize the maximum number of entries
+     * @param maxAge the time after which an entry expires
+     * @param unit the unit of maxAge
+     */
+    public ResultCache(int maxSize, long maxAge, @NotNull TimeUnit unit) {
+        this(maxSize, unit.toNanos(maxAge), System::nanoTime);
+    }
+
+    /**
+     * Construct a new cache with a specific time source
+     *
+     * @param maxSize the maximum number of entries
+     * @param maxAge the time in ticker units after which an entry expires
+     * @param ticker the time source
+     */
+    ResultCache(int maxSize, long maxAge, @NotNull LongSupplier ticker) {
+        cache = new BoundedCache<>(maxSize, maxAge, ticker);
+    }
+
+    /**
+     * Get a Formatter that caches the output of template
+     *
+     * @param template the template
+     * @return a caching Formatter, or template if it uses a search or special:everything
+     */
+    @NotNull
+    public Formatter wrap(@NotNull Formatter template) {
+        return wrap(template, false);
+    }
+
+    /**
+     * Get a Formatter that caches the output of template
+     *
+     * @param template the template
+     * @param cacheAll if true, cache output of templates using searches and special:everything too
+     * @return a caching Formatter, or template if it shouldn't be cached
+     */
+    @NotNull
+    public Formatter wrap(@NotNull Formatter template, boolean cacheAll) {
+        if (!cacheAll) {
+            ReferencedKeys keys = template instanceof CompiledTemplate ? ((CompiledTemplate) template).referencedKeys()
+                    : ReferencedKeys.of(Collections.singletonList(template));
+            if (keys.usesSearch() || keys.usesEverything() || keys.hasUnknownFormatters()) {
+                return template;
+            }
+        }
+        return new CachingFormatter(template, templateIds.incrementAndGet());
+    }
+
+    /**
+     * Remove the cached output for an element for all templates
+     *
+     * @param type the element type
+     * @param id the element id
+     */
+    public void invalidate(@NotNull Type type, long id) {
+        cache.removeIf(key -> key.id == id && key.type == type);
+    }
+
+    /**
+     * Remove all entries, this doesn't reset the statistics
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Get the number of entries
+     *
+     * @return the number of cached outputs
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of lookups that found cached output
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * Get the number of lookups that required formatting
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * Formatter that looks up its output in the cache
+     */
+    private final class CachingFormatter implements Formatter {
+        private final Formatter template;
+        private final int       id;
+
+        /**
+         * Construct a new instance
+         *
+         * @param template the template
+         * @param id the id used for the template in keys
+         */
+        CachingFormatter(@NotNull Formatter template, int id) {
+            this.template = template;
+            this.id = id;
+        }
+
+        @Override
+        @NotNull
+        public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            if (meta == null) {
+                return template.format(type, meta, tags);
+            }
+            Key key = new Key(id, type, meta.getId(), meta.getVersion());
+            String result = cache.get(key);
+            if (result == null) {
+                result = cache.putIfAbsent(key, template.format(type, meta, tags));
+            }
+            return result;
+        }
+
+        @Override
+        public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            if (meta == null) {
+                template.formatTo(builder, type, meta, tags);
+                return;
+            }
+            builder.append(format(type, meta, tags));
+        }
+
+        @Override
+        public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+            if (meta == null) {
+                template.formatFrom(builder, type, meta, tags);
+                return;
+            }
+            Key key = new Key(id, type, meta.getId(), meta.getVersion());
+            String result = cache.get(key);
+            if (result == null) {
+                StringBuilder output = new StringBuilder();
+                template.formatFrom(output, type, meta, tags);
+                result = cache.putIfAbsent(key, output.toString());
+            }
+            builder.append(result);
+        }
+
+        @Override
+        public String toString() {
+            return template.toString();
+        }
+    }
+}
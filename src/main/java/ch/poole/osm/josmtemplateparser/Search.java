@@ -1,6 +1,5 @@
 package ch.poole.osm.josmtemplateparser;
 
-import java.io.ByteArrayInputStream;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
@@ -9,7 +8,6 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import ch.poole.osm.josmfilterparser.Condition;
-import ch.poole.osm.josmfilterparser.JosmFilterParser;
 import ch.poole.osm.josmfilterparser.Meta;
 import ch.poole.osm.josmfilterparser.Type;
 
@@ -22,28 +20,132 @@ import ch.poole.osm.josmfilterparser.Type;
 public class Search implements Formatter {
 
     private final Condition       condition;
+    private final String          source;
     private final List<Formatter> formatters;
 
+    /**
+     * Construct a new Search from the unparsed search expression and template
+     * 
+     * @param searchExpression the search expression in JOSM filter syntax
+     * @param template the quoted template with the quoting removed
+     * @throws ParseException if the expression or template can't be parsed
+     */
     public Search(@NotNull String searchExpression, @NotNull String template) throws ParseException {
-        try {
-            condition = (new JosmFilterParser(new ByteArrayInputStream(searchExpression.trim().getBytes()))).condition();
-            formatters = (new JosmTemplateParser(new ByteArrayInputStream(template.trim().getBytes()))).formatters();
-        } catch (ch.poole.osm.josmfilterparser.ParseException pex) {
-            throw new ParseException("Template " + template + " " + pex.getMessage());
-        }
+        NestedParser parser = new NestedParser();
+        condition = parser.condition(searchExpression);
+        source = searchExpression.trim();
+        formatters = parser.template(template.trim());
+    }
+
+    /**
+     * Construct a new Search from an already parsed condition and template
+     * 
+     * @param condition the Condition used to find the element
+     * @param source the source of the condition
+     * @param formatters the template that is applied to the element
+     */
+    Search(@NotNull Condition condition, @NotNull String source, @NotNull List<Formatter> formatters) {
+        this.condition = condition;
+        this.source = source;
+        this.formatters = formatters;
+    }
+
+    /**
+     * Get the search condition
+     * 
+     * @return the Condition
+     */
+    @NotNull
+    Condition getCondition() {
+        return condition;
+    }
+
+    /**
+     * Get the source of the search condition
+     * 
+     * @return the search expression
+     */
+    @NotNull
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * Get the template applied to the found element
+     * 
+     * @return a List of Formatter
+     */
+    @NotNull
+    List<Formatter> getFormatters() {
+        return formatters;
     }
 
     @Override
     @NotNull
     public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        StringBuilder builder = new StringBuilder();
+        formatTo(builder, type, meta, tags);
+        return builder.toString();
+    }
+
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        formatTo(builder, type, meta, tags, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags, int limit) {
         if (meta != null) {
-            List<Serializable> matches = meta.getMatchingElements(condition);
-            if (!matches.isEmpty()) {
-                Meta match = meta.wrap(matches.get(0));
-                return Util.listFormat(formatters, match.getType(), match, match.getTags());
+            Meta match;
+            SearchScope scope = SearchScope.current();
+            if (scope != null) {
+                match = scope.match(meta, condition, source);
+            } else {
+                Serializable element = firstMatch(meta, condition);
+                match = element != null ? meta.wrap(element) : null;
             }
+            if (match != null) {
+                Util.listFormatToLimit(builder, formatters, match.getType(), match, match.getTags(), limit);
+            }
+        }
+    }
+
+    /**
+     * Get the first element matching a condition
+     * 
+     * @param meta the Meta object of the element the search is relative to
+     * @param condition the Condition
+     * @return the first match or null
+     */
+    @Nullable
+    static Serializable firstMatch(@NotNull Meta meta, @NotNull Condition condition) {
+        if (meta instanceof FirstMatchMeta) {
+            return ((FirstMatchMeta) meta).getFirstMatchingElement(condition);
+        }
+        List<Serializable> matches = meta.getMatchingElements(condition);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    @Override
+    public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+        formatTo(builder, type, meta, (Map<String, String>) null); // only the tags of the found element are used
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * source.hashCode() + formatters.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
         }
-        return "";
+        Search other = (Search) obj;
+        return Conditions.same(condition, source, other.condition, other.source) && formatters.equals(other.formatters);
     }
 
     @Override
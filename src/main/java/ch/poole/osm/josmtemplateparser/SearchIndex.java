@@ -0,0 +1,38 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.io.Serializable;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Meta;
+
+/**
+ * Precomputed answers for search expressions
+ *
+ * An index can be passed to {@link SearchScope#open(SearchIndex)}, searches with expressions the index handles don't
+ * call {@link Meta#getMatchingElements(ch.poole.osm.josmfilterparser.Condition)}.
+ *
+ * @author simon
+ *
+ */
+public interface SearchIndex {
+
+    /**
+     * Check if this index can answer a search
+     *
+     * @param source the search expression
+     * @return true if {@link #firstMatch(String, Meta)} can be used for the expression
+     */
+    boolean handles(@NotNull String source);
+
+    /**
+     * Get the first element matching a search expression
+     *
+     * @param source the search expression
+     * @param context the Meta object of the element the search is relative to
+     * @return the first matching element or null if there is none
+     */
+    @Nullable
+    Serializable firstMatch(@NotNull String source, @NotNull Meta context);
+}
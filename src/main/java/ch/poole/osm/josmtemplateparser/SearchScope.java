@@ -0,0 +1,194 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Share search results for the duration of a render or a batch
+ *
+ * While a scope is open in a thread, searches in that thread remember the element found for each search expression
+ * and context element, and reuse it instead of searching again. The underlying data must not change while the scope is
+ * open. Scopes are opened and closed in one thread and can be nested, use with try-with-resources:
+ * 
+ * <pre>
+ * try (SearchScope scope = SearchScope.open()) {
+ *     // format elements
+ * }
+ * </pre>
+ * 
+ * The results are stored in a concurrent map, {@link TemplateEngine#formatAllParallel(Formatter, java.util.List)}
+ * makes the scope that is open in the calling thread current in the tasks it runs, so that all threads share the
+ * same results.
+ *
+ * @author simon
+ *
+ */
+public final class SearchScope implements AutoCloseable {
+
+    private static final ThreadLocal<SearchScope> CURRENT = new ThreadLocal<>();
+
+    private final SearchScope              previous;
+    private final SearchIndex              index;
+    private final Map<Key, Optional<Meta>> results = new ConcurrentHashMap<>();
+    private final Thread                   owner;
+
+    /**
+     * Key for the results
+     */
+    private static final class Key {
+        final String source;
+        final Type   type;
+        final long   id;
+
+        /**
+         * Construct a new key
+         *
+         * @param source the search expression
+         * @param type the type of the context element
+         * @param id the id of the context element
+         */
+        Key(@NotNull String source, @Nullable Type type, long id) {
+            this.source = source;
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * source.hashCode() + Objects.hashCode(type)) + Long.hashCode(id);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return id == other.id && type == other.type && source.equals(other.source);
+        }
+    }
+
+    /**
+     * Construct a new scope
+     *
+     * @param previous the enclosing scope or null
+     * @param index an index or null
+     */
+    private SearchScope(@Nullable SearchScope previous, @Nullable SearchIndex index) {
+        this.previous = previous;
+        this.index = index;
+        owner = Thread.currentThread();
+    }
+
+    /**
+     * Open a new scope in the current thread
+     *
+     * @return the new scope
+     */
+    @NotNull
+    public static SearchScope open() {
+        return open(null);
+    }
+
+    /**
+     * Open a new scope in the current thread
+     *
+     * @param index an index that is used for the expressions it handles, or null
+     * @return the new scope
+     */
+    @NotNull
+    public static SearchScope open(@Nullable SearchIndex index) {
+        SearchScope scope = new SearchScope(CURRENT.get(), index);
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * Get the innermost open scope of the current thread
+     *
+     * @return the scope or null if none is open
+     */
+    @Nullable
+    static SearchScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Make a scope current in this thread without opening it, used to run tasks in other threads in the scope of the
+     * thread that started them
+     *
+     * @param scope the scope or null
+     * @return the scope that was current before, pass it to this method again to restore it
+     */
+    @Nullable
+    static SearchScope attach(@Nullable SearchScope scope) {
+        SearchScope previous = CURRENT.get();
+        if (scope != null) {
+            CURRENT.set(scope);
+        } else {
+            CURRENT.remove();
+        }
+        return previous;
+    }
+
+    /**
+     * Find the first element matching a search
+     *
+     * @param context the Meta object of the element the search is relative to
+     * @param condition the parsed search expression
+     * @param source the search expression
+     * @return the wrapped element or null if there is no match
+     */
+    @Nullable
+    Meta match(@NotNull Meta context, @NotNull Condition condition, @NotNull String source) {
+        Key key = new Key(source, context.getType(), context.getId());
+        Optional<Meta> result = results.get(key);
+        if (result == null) { // NOSONAR
+            Serializable element = index != null && index.handles(source) ? index.firstMatch(source, context) : Search.firstMatch(context, condition);
+            result = Optional.ofNullable(element != null ? context.wrap(element) : null);
+            Optional<Meta> existing = results.putIfAbsent(key, result);
+            if (existing != null) { // found by another thread in the mean time
+                result = existing;
+            }
+        }
+        return result.orElse(null);
+    }
+
+    /**
+     * Get the number of cached search results
+     *
+     * @return the number of results
+     */
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * Close the scope, the enclosing scope, if any, becomes current again
+     */
+    @Override
+    public void close() {
+        if (Thread.currentThread() != owner) {
+            throw new IllegalStateException("SearchScope closed in a different thread");
+        }
+        if (previous != null) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
+        }
+        results.clear();
+    }
+}
@@ -0,0 +1,49 @@
+package ch.poole.osm.josmtemplateparser;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tag bound to a slot in a KeyDictionary
+ * 
+ * @author simon
+ *
+ */
+final class SlotTag extends Tag {
+
+    private final int slot;
+
+    /**
+     * Construct a new instance
+     * 
+     * @param tag the unbound Tag
+     * @param dictionary the KeyDictionary
+     */
+    SlotTag(@NotNull Tag tag, @NotNull KeyDictionary dictionary) {
+        super(tag.getKey(), tag.useDisplayValue());
+        slot = dictionary.slot(tag.getKey());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + slot;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return super.equals(obj) && slot == ((SlotTag) obj).slot;
+    }
+
+    @Override
+    public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+        if (tags != null) {
+            String value = tags.get(slot);
+            if (value != null) {
+                builder.append(displayValue(meta, getKey(), value));
+            }
+        }
+    }
+}
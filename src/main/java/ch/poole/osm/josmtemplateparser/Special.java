@@ -2,6 +2,7 @@ package ch.poole.osm.josmtemplateparser;
 
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -10,75 +11,144 @@ import ch.poole.osm.josmfilterparser.Meta;
 import ch.poole.osm.josmfilterparser.Type;
 
 /**
- * Replace {key} with the special values
+ * Replace {special:xxx} with the output of a SpecialHandler
  * 
  * @author simon
  *
  */
 public class Special implements Formatter {
-    private static final String EVERYTHING = "special:everything";
-    private static final String ID         = "special:id";
-    private static final String LOCAL_NAME = "special:localName";
+    static final String NAME_KEY = "name";
 
-    private static final String NAME_KEY = "name";
-
-    private final String key;
+    private final String         key;
+    private final SpecialHandler handler;
 
+    /**
+     * Construct a new instance using the handler registered for the key
+     * 
+     * If there is no handler for the key no output is produced
+     * 
+     * @param specialKey the key including the special: prefix
+     */
     public Special(@NotNull String specialKey) {
-        this.key = specialKey;
+        this(specialKey, SpecialHandlers.get(specialKey));
+    }
 
+    /**
+     * Construct a new instance
+     * 
+     * @param specialKey the key including the special: prefix
+     * @param handler the SpecialHandler or null
+     */
+    public Special(@NotNull String specialKey, @Nullable SpecialHandler handler) {
+        this.key = specialKey;
+        this.handler = handler;
     }
 
     @Override
     @NotNull
     public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
-        if (meta == null) {
-            return "";
+        StringBuilder builder = new StringBuilder();
+        formatTo(builder, type, meta, tags);
+        return builder.toString();
+    }
+
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        if (handler != null) {
+            handler.append(builder, type, meta, tags);
         }
-        switch (key) {
-        case EVERYTHING:
-            Map<String, String> t = meta.getTags();
-            if (t != null) {
-                return buildStringFromTags(t);
-            }
-            break;
-        case ID:
-            return Long.toString(meta.getId());
-        case LOCAL_NAME:
-            t = meta.getTags();
+    }
+
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags, int limit) {
+        if (handler == BuiltinSpecial.EVERYTHING) {
+            Map<String, String> t = meta != null ? meta.getTags() : null;
             if (t != null) {
-                String name = t.get(NAME_KEY);
-                if (name != null) {
-                    return name;
-                }
+                buildStringFromTags(builder, t, limit);
             }
-        default:
+        } else {
+            formatTo(builder, type, meta, tags);
         }
-        return "";
+    }
+
+    @Override
+    public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+        formatTo(builder, type, meta, (Map<String, String>) null); // uses the tags from meta
     }
 
     /**
      * Build a string by concatenating the tags
      * 
-     * @param tags
-     * @return a String
+     * @param builder the StringBuilder to append to
+     * @param tags the tags
      */
-    @NotNull
-    private static String buildStringFromTags(@NotNull Map<String, String> tags) {
-        StringBuilder builder = new StringBuilder();
+    static void buildStringFromTags(@NotNull StringBuilder builder, @NotNull Map<String, String> tags) {
+        buildStringFromTags(builder, tags, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Build a string by concatenating the tags, stopping once builder has reached a length
+     * 
+     * @param builder the StringBuilder to append to
+     * @param tags the tags
+     * @param limit the length of builder after which no further tags are added
+     */
+    static void buildStringFromTags(@NotNull StringBuilder builder, @NotNull Map<String, String> tags, int limit) {
+        boolean first = true;
         for (Entry<String, String> entry : tags.entrySet()) {
-            if (builder.length() != 0) {
+            if (builder.length() >= limit) {
+                return;
+            }
+            if (first) {
+                first = false;
+            } else {
                 builder.append("\n");
             }
             builder.append(entry.getKey());
             builder.append("=");
             builder.append(entry.getValue());
         }
-        return builder.toString();
+    }
+
+    /**
+     * Get the special key
+     * 
+     * @return the key including the special: prefix
+     */
+    @NotNull
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Get the handler
+     * 
+     * @return the SpecialHandler or null if there is none
+     */
+    @Nullable
+    SpecialHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        Special other = (Special) obj;
+        return key.equals(other.key) && Objects.equals(handler, other.handler);
     }
 
     @Override
     public String toString() {
-        return "{special:" + key + "}";
+        return "{" + key + "}";
     }
 }
@@ -0,0 +1,30 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Produces the output of a {special:xxx} template element
+ * 
+ * Handlers are looked up in {@link SpecialHandlers} when a template is parsed, implementations must be thread safe.
+ * 
+ * @author simon
+ *
+ */
+public interface SpecialHandler {
+
+    /**
+     * Append the special value for an OSM element
+     * 
+     * @param builder the StringBuilder to append to
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element or null, the tags of meta should be used if they are needed
+     */
+    void append(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags);
+}
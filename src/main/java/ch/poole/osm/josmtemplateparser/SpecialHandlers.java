@@ -0,0 +1,96 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Registry of the handlers for {special:xxx} template elements
+ * 
+ * Keys include the special: prefix and are matched ignoring case. The {@link BuiltinSpecial} handlers are registered
+ * by default and can be replaced. Registering a handler only affects templates that are parsed afterwards, elements
+ * with a key that has no handler are treated as normal tags.
+ * 
+ * @author simon
+ *
+ */
+public final class SpecialHandlers {
+
+    static final String PREFIX = "special:";
+
+    private static final Map<String, SpecialHandler> HANDLERS = new ConcurrentHashMap<>();
+
+    static {
+        for (BuiltinSpecial special : BuiltinSpecial.values()) {
+            HANDLERS.put(normalize(special.getKey()), special);
+        }
+    }
+
+    /**
+     * Private constructor
+     */
+    private SpecialHandlers() {
+        // nothing
+    }
+
+    /**
+     * Register a handler
+     * 
+     * @param key the key including the special: prefix
+     * @param handler the SpecialHandler
+     * @throws IllegalArgumentException if the key doesn't start with special:
+     */
+    public static void register(@NotNull String key, @NotNull SpecialHandler handler) {
+        HANDLERS.put(normalize(key), handler);
+    }
+
+    /**
+     * Remove the handler for a key
+     * 
+     * @param key the key including the special: prefix
+     */
+    public static void unregister(@NotNull String key) {
+        HANDLERS.remove(normalize(key));
+    }
+
+    /**
+     * Get the handler for a key
+     * 
+     * @param key the key including the special: prefix
+     * @return the SpecialHandler or null if there is none
+     */
+    @Nullable
+    public static SpecialHandler get(@NotNull String key) {
+        return key.regionMatches(true, 0, PREFIX, 0, PREFIX.length()) ? HANDLERS.get(key.toLowerCase(Locale.ROOT)) : null;
+    }
+
+    /**
+     * Get the Formatter for a special key
+     * 
+     * @param key the key including the special: prefix
+     * @return a Special with the registered handler, or a Tag for the key if there is no handler
+     */
+    @NotNull
+    static Formatter formatter(@NotNull String key) {
+        SpecialHandler handler = get(key);
+        return handler != null ? new Special(key, handler) : new Tag(key, false);
+    }
+
+    /**
+     * Normalize a key
+     * 
+     * @param key the key including the special: prefix
+     * @return the lower case key
+     * @throws IllegalArgumentException if the key doesn't start with special:
+     */
+    @NotNull
+    static String normalize(@NotNull String key) {
+        if (!key.regionMatches(true, 0, PREFIX, 0, PREFIX.length()) || key.length() == PREFIX.length()) {
+            throw new IllegalArgumentException("Key " + key + " doesn't start with " + PREFIX);
+        }
+        return key.toLowerCase(Locale.ROOT);
+    }
+}
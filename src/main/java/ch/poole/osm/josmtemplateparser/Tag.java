@@ -36,6 +36,16 @@ public class Tag implements Formatter {
         return value != null ? displayValue(meta, key, value) : "";
     }
 
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        if (tags != null) {
+            String value = tags.get(key);
+            if (value != null) {
+                builder.append(displayValue(meta, key, value));
+            }
+        }
+    }
+
     /**
      * Return a suitable value for display
      * 
@@ -44,10 +54,47 @@ public class Tag implements Formatter {
      * @param value the original value
      * @return a value suitable for display
      */
-    private @NotNull String displayValue(@Nullable Meta meta, @NotNull String key, @NotNull String value) {
+    @NotNull
+    String displayValue(@Nullable Meta meta, @NotNull String key, @NotNull String value) {
         return meta != null && useDisplayValue ? meta.displayValue(key, value) : value;
     }
 
+    /**
+     * Get the key
+     * 
+     * @return the key
+     */
+    @NotNull
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Check if the display value should be used
+     * 
+     * @return true if the display value is used
+     */
+    boolean useDisplayValue() {
+        return useDisplayValue;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * key.hashCode() + (useDisplayValue ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        Tag other = (Tag) obj;
+        return useDisplayValue == other.useDisplayValue && key.equals(other.key);
+    }
+
     @Override
     public String toString() {
         return "{" + (useDisplayValue ? USE_DISPLAY_VALUE_PREFIX : "") + key + "}";
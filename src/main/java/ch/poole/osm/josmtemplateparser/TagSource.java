@@ -0,0 +1,38 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Map;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Access to the tags of an OSM element by slot
+ * 
+ * Slots are the indices assigned to keys by a {@link KeyDictionary}, a template compiled against the dictionary reads
+ * tag values with {@link #get(int)} instead of looking them up by key. Element stores that already encode keys as
+ * integers can implement this directly and avoid building a Map per element.
+ * 
+ * @author simon
+ *
+ */
+public interface TagSource {
+
+    /**
+     * Get the value for the key with slot
+     * 
+     * @param slot the slot of the key in the KeyDictionary the template was compiled against
+     * @return the value or null if the element doesn't have the tag or the slot is unknown to the source
+     */
+    @Nullable
+    String get(int slot);
+
+    /**
+     * Get all tags of the element
+     * 
+     * This is used for explicit conditions and formatters that need the complete set of tags, implementations that
+     * don't store a Map may build it on demand.
+     * 
+     * @return a Map of the tags or null
+     */
+    @Nullable
+    Map<String, String> asMap();
+}
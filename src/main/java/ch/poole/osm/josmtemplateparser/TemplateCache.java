@@ -0,0 +1,91 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thread safe cache of parsed templates
+ *
+ * The cache is bounded, if it grows larger than the maximum size the least recently used templates are removed. The
+ * returned lists are unmodifiable and can be shared between threads, as can the Formatter objects they contain.
+ *
+ * @author simon
+ *
+ */
+public class TemplateCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final BoundedCache<String, List<Formatter>> cache;
+
+    /**
+     * Construct a new cache with the default maximum size
+     */
+    public TemplateCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Construct a new cache
+     *
+     * @param maxSize the maximum number of templates to retain
+     */
+    public TemplateCache(int maxSize) {
+        cache = new BoundedCache<>(maxSize);
+    }
+
+    /**
+     * Get the parsed template, parsing it if it isn't already in the cache
+     *
+     * Templates that fail to parse are not cached.
+     *
+     * @param template the template source
+     * @return an unmodifiable List of Formatter
+     * @throws ParseException if the template can't be parsed
+     */
+    @NotNull
+    public List<Formatter> get(@NotNull String template) throws ParseException {
+        List<Formatter> formatters = cache.get(template);
+        if (formatters == null) {
+            formatters = Collections.unmodifiableList(JosmTemplateParser.parse(template));
+            formatters = cache.putIfAbsent(template, formatters);
+        }
+        return formatters;
+    }
+
+    /**
+     * Remove all templates from the cache, this doesn't reset the statistics
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Get the number of templates in the cache
+     *
+     * @return the number of cached templates
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of lookups that found a parsed template
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * Get the number of lookups that required parsing the template
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return cache.getMisses();
+    }
+}
@@ -0,0 +1,261 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Meta;
+
+/**
+ * Format many elements with a template
+ *
+ * Formatter objects returned by the parser, CompiledTemplate and this class are immutable and can be shared between
+ * threads. Parser instances are not thread safe. For parallel formatting the Meta objects and their tags must support
+ * concurrent reads. A {@link SearchScope} that is open in the thread calling formatAllParallel is used by all tasks.
+ *
+ * Templates compiled with {@link #compile(List)} use the {@link DisplayValueCache} of the engine for {%key} tags and
+ * the special handlers registered with the engine, for example a {@link LocalNameHandler} for the language the engine
+ * is used for. The cached display values are not updated automatically, callers must call
+ * {@link DisplayValueCache#invalidate()} on {@link #getDisplayValueCache()} when the locale or the presets change, as
+ * otherwise templates keep producing the old display values.
+ *
+ * @author simon
+ *
+ */
+public class TemplateEngine {
+
+    static final int DEFAULT_THRESHOLD = 256;
+
+    private final ForkJoinPool                pool;
+    private final int                         threshold;
+    private final DisplayValueCache           displayValues;
+    private final Map<String, SpecialHandler> specialHandlers = new ConcurrentHashMap<>();
+    private final ThreadLocal<StringBuilder>  scratch         = ThreadLocal.withInitial(StringBuilder::new);
+
+    /**
+     * Construct a new engine that uses the common ForkJoinPool for parallel formatting
+     */
+    public TemplateEngine() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Construct a new engine
+     *
+     * @param pool the ForkJoinPool to use for parallel formatting
+     * @param threshold the number of elements below which a task is not split further
+     */
+    public TemplateEngine(@NotNull ForkJoinPool pool, int threshold) {
+        this(pool, threshold, new DisplayValueCache());
+    }
+
+    /**
+     * Construct a new engine
+     *
+     * @param pool the ForkJoinPool to use for parallel formatting
+     * @param threshold the number of elements below which a task is not split further
+     * @param displayValues the cache for display values, can be shared between engines
+     */
+    public TemplateEngine(@NotNull ForkJoinPool pool, int threshold, @NotNull DisplayValueCache displayValues) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be at least 1");
+        }
+        this.pool = pool;
+        this.threshold = threshold;
+        this.displayValues = displayValues;
+    }
+
+    /**
+     * Get the display value cache
+     *
+     * Call {@link DisplayValueCache#invalidate()} on it when the locale or the presets change
+     *
+     * @return the DisplayValueCache used by templates compiled with this engine
+     */
+    @NotNull
+    public DisplayValueCache getDisplayValueCache() {
+        return displayValues;
+    }
+
+    /**
+     * Use a handler for a special in templates compiled with this engine instead of the one registered with
+     * {@link SpecialHandlers}
+     *
+     * @param key the key including the special: prefix
+     * @param handler the SpecialHandler
+     * @throws IllegalArgumentException if the key doesn't start with special:
+     */
+    public void registerSpecialHandler(@NotNull String key, @NotNull SpecialHandler handler) {
+        specialHandlers.put(SpecialHandlers.normalize(key), handler);
+    }
+
+    /**
+     * Compile a parsed template with {%key} tags that use the display value cache and specials that use the handlers
+     * of this engine
+     *
+     * @param formatters the output of the parser
+     * @return a CompiledTemplate
+     */
+    @NotNull
+    public CompiledTemplate compile(@NotNull List<Formatter> formatters) {
+        return CompiledTemplate.compile(Util.replace(formatters, this::bind));
+    }
+
+    /**
+     * Bind a formatter to the display value cache and special handlers of this engine
+     *
+     * @param f the Formatter
+     * @return the bound Formatter or f
+     */
+    @NotNull
+    private Formatter bind(@NotNull Formatter f) {
+        String key = null;
+        if (f instanceof Special) {
+            key = ((Special) f).getKey();
+        } else if (f instanceof Tag && !((Tag) f).useDisplayValue()) { // specials without a global handler are parsed as tags
+            key = ((Tag) f).getKey();
+        }
+        SpecialHandler handler = key != null && !specialHandlers.isEmpty() ? specialHandlers.get(key.toLowerCase(Locale.ROOT)) : null;
+        return handler != null ? new Special(key, handler) : displayValues.bind(f);
+    }
+
+    /**
+     * Format elements sequentially in the calling thread
+     *
+     * @param template the template
+     * @param elements the elements to format
+     * @return a List with the output for each element in iteration order
+     */
+    @NotNull
+    public List<String> formatAll(@NotNull Formatter template, @NotNull Iterable<? extends Meta> elements) {
+        return formatAll(template, elements, scratch.get());
+    }
+
+    /**
+     * Format elements sequentially in the calling thread
+     *
+     * @param template the template
+     * @param elements the elements to format
+     * @param buffer a scratch buffer owned by the caller
+     * @return a List with the output for each element in iteration order
+     */
+    @NotNull
+    public List<String> formatAll(@NotNull Formatter template, @NotNull Iterable<? extends Meta> elements, @NotNull StringBuilder buffer) {
+        List<String> result = new ArrayList<>();
+        for (Meta element : elements) {
+            result.add(format(template, element, buffer));
+        }
+        return result;
+    }
+
+    /**
+     * Format elements in parallel
+     *
+     * @param template the template
+     * @param elements the elements to format
+     * @return a List with the output for each element in the same order as elements
+     */
+    @NotNull
+    public List<String> formatAllParallel(@NotNull Formatter template, @NotNull List<? extends Meta> elements) {
+        return formatAllParallel(template, elements, scratch);
+    }
+
+    /**
+     * Format elements in parallel
+     *
+     * @param template the template
+     * @param elements the elements to format
+     * @param buffers scratch buffers, one per thread, owned by the caller
+     * @return a List with the output for each element in the same order as elements
+     */
+    @NotNull
+    public List<String> formatAllParallel(@NotNull Formatter template, @NotNull List<? extends Meta> elements,
+            @NotNull ThreadLocal<StringBuilder> buffers) {
+        List<? extends Meta> input = elements instanceof RandomAccess ? elements : new ArrayList<>(elements);
+        String[] result = new String[input.size()];
+        if (result.length > 0) {
+            pool.invoke(new FormatTask(template, input, result, 0, result.length, buffers, SearchScope.current()));
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Format a single element
+     *
+     * @param template the template
+     * @param element the element
+     * @param buffer a scratch buffer
+     * @return the output
+     */
+    @NotNull
+    private static String format(@NotNull Formatter template, @NotNull Meta element, @NotNull StringBuilder buffer) {
+        buffer.setLength(0);
+        template.formatTo(buffer, element.getType(), element, element.getTags());
+        return buffer.toString();
+    }
+
+    /**
+     * Task formatting a range of elements, splits itself in two if the range is larger than the threshold
+     */
+    private final class FormatTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Formatter                  template;
+        private final transient List<? extends Meta>       elements;
+        private final String[]                             result;
+        private final int                                  from;
+        private final int                                  to;
+        private final transient ThreadLocal<StringBuilder> buffers;
+        private final transient SearchScope                scope;
+
+        /**
+         * Construct a new task
+         *
+         * @param template the template
+         * @param elements all elements
+         * @param result the array the output is written to
+         * @param from the first index of the range
+         * @param to the index after the last index of the range
+         * @param buffers per thread scratch buffers
+         * @param scope the SearchScope of the calling thread or null
+         */
+        FormatTask(@NotNull Formatter template, @NotNull List<? extends Meta> elements, @NotNull String[] result, int from, int to,
+                @NotNull ThreadLocal<StringBuilder> buffers, @Nullable SearchScope scope) {
+            this.template = template;
+            this.elements = elements;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+            this.buffers = buffers;
+            this.scope = scope;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                StringBuilder buffer = buffers.get();
+                SearchScope previous = SearchScope.attach(scope);
+                try {
+                    for (int i = from; i < to; i++) {
+                        result[i] = format(template, elements.get(i), buffer);
+                    }
+                } finally {
+                    SearchScope.attach(previous);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new FormatTask(template, elements, result, from, middle, buffers, scope),
+                    new FormatTask(template, elements, result, middle, to, buffers, scope));
+        }
+    }
+}
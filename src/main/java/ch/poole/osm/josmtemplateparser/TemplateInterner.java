@@ -0,0 +1,108 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Condition;
+
+/**
+ * Share structurally identical formatters between templates
+ *
+ * Interned templates are rebuilt bottom up with a single instance for every distinct Literal, Tag, Special,
+ * Conditional, Search, List of values and Condition, conditions are identified by their source. This reduces memory
+ * use when many similar templates are held, for example those of a large set of presets. The interner holds on to all
+ * instances until {@link #clear()} is called, it can be used concurrently.
+ *
+ * @author simon
+ *
+ */
+public class TemplateInterner {
+
+    private final Map<Formatter, Formatter>             formatters = new ConcurrentHashMap<>();
+    private final Map<List<Formatter>, List<Formatter>> lists      = new ConcurrentHashMap<>();
+    private final Map<String, Condition>                conditions = new ConcurrentHashMap<>();
+
+    /**
+     * Intern a parsed template
+     *
+     * @param template the output of the parser
+     * @return an unmodifiable List of Formatter that is equal to template
+     */
+    @NotNull
+    public List<Formatter> intern(@NotNull List<Formatter> template) {
+        List<Formatter> result = new ArrayList<>(template.size());
+        for (Formatter f : template) {
+            result.add(intern(f));
+        }
+        List<Formatter> interned = Collections.unmodifiableList(result);
+        List<Formatter> existing = lists.putIfAbsent(interned, interned);
+        return existing != null ? existing : interned;
+    }
+
+    /**
+     * Intern a single formatter
+     *
+     * Formatters that are not part of this library are returned as is
+     *
+     * @param formatter the Formatter
+     * @return an equal Formatter
+     */
+    @NotNull
+    public Formatter intern(@NotNull Formatter formatter) {
+        Formatter f = formatter;
+        if (formatter instanceof Conditional) {
+            Conditional conditional = new Conditional();
+            for (Conditional.ConditionalValue cv : ((Conditional) formatter).getConditions()) {
+                conditional.add(intern(cv.condition, cv.source), cv.source, intern(cv.values));
+            }
+            f = conditional;
+        } else if (formatter instanceof Search) {
+            Search search = (Search) formatter;
+            f = new Search(intern(search.getCondition(), search.getSource()), search.getSource(), intern(search.getFormatters()));
+        } else if (!(formatter instanceof Literal || formatter instanceof Tag || formatter instanceof Special)) {
+            return formatter;
+        }
+        Formatter existing = formatters.putIfAbsent(f, f);
+        return existing != null ? existing : f;
+    }
+
+    /**
+     * Intern a condition
+     *
+     * @param condition the Condition or null
+     * @param source the source of the condition or null
+     * @return an equivalent Condition or null
+     */
+    @Nullable
+    private Condition intern(@Nullable Condition condition, @Nullable String source) {
+        if (condition == null || source == null) {
+            return condition;
+        }
+        Condition existing = conditions.putIfAbsent(source, condition);
+        return existing != null ? existing : condition;
+    }
+
+    /**
+     * Get the number of distinct formatters
+     *
+     * @return the number of formatters held
+     */
+    public int size() {
+        return formatters.size();
+    }
+
+    /**
+     * Release all interned instances
+     */
+    public void clear() {
+        formatters.clear();
+        lists.clear();
+        conditions.clear();
+    }
+}
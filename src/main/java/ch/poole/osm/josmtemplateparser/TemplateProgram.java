@@ -0,0 +1,340 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * A template encoded as a flat instruction stream
+ *
+ * The template is simplified with {@link Optimizer} and then translated to an int array of instructions with a String
+ * constant pool, conditionals become conditional and unconditional jumps. Formatting runs a single interpreter loop
+ * instead of calling the formatters of the template. Only the instructions, the constants, the parsed conditions, the
+ * formatters that are called as is and the template source for {@link #toString()} are retained, not the tree of
+ * formatters. Implicit conditions are checked with a stack of output lengths that is reused per thread. Searches,
+ * specials with application handlers and formatters that are not part of this library are called as is. Instances are
+ * immutable and can be shared between threads.
+ *
+ * @author simon
+ *
+ */
+public final class TemplateProgram implements Formatter {
+
+    // instructions, operands follow the opcode
+    static final int LITERAL         = 0; // constant: append the constant
+    static final int TAG             = 1; // constant: append the value of the key
+    static final int DISPLAY_TAG     = 2; // constant: append the display value of the key
+    static final int SPECIAL         = 3; // special: append a built in special value
+    static final int BRANCH_IF_FALSE = 4; // condition, target: jump if the condition is false
+    static final int JUMP            = 5; // target: jump
+    static final int JUMP_IF_NO_TAGS = 6; // target: jump if there are no tags
+    static final int MARK            = 7; // push the current output length
+    static final int CHECK           = 8; // target: pop a length, if nothing was appended restore the next one and jump
+    static final int DROP            = 9; // pop a length
+    static final int FORMATTER       = 10; // formatter: call the formatter
+
+    private static final BuiltinSpecial[] SPECIALS = BuiltinSpecial.values();
+
+    private static final ThreadLocal<Stack> STACK = ThreadLocal.withInitial(Stack::new);
+
+    private final String      source;
+    private final int[]       code;
+    private final String[]    constants;
+    private final Condition[] conditions;
+    private final Formatter[] calls;
+    private final int         stackSize;
+
+    /**
+     * Per thread stack of output lengths, programs that call other programs use the space above the caller's entries
+     */
+    private static final class Stack {
+        int[] data = new int[16];
+        int   top  = 0;
+    }
+
+    /**
+     * Construct a new program
+     *
+     * @param source the template source
+     * @param assembler the Assembler holding the translated template
+     */
+    private TemplateProgram(@NotNull String source, @NotNull Assembler assembler) {
+        this.source = source;
+        code = Arrays.copyOf(assembler.code, assembler.size);
+        constants = assembler.constants.toArray(new String[0]);
+        conditions = assembler.conditions.toArray(new Condition[0]);
+        calls = assembler.calls.toArray(new Formatter[0]);
+        stackSize = assembler.maxDepth;
+    }
+
+    /**
+     * Compile a parsed template
+     *
+     * @param formatters the output of the parser
+     * @return a TemplateProgram
+     */
+    @NotNull
+    public static TemplateProgram compile(@NotNull List<Formatter> formatters) {
+        Assembler assembler = new Assembler();
+        assembler.list(Optimizer.optimize(new ArrayList<>(formatters)), 0);
+        StringBuilder source = new StringBuilder();
+        for (Formatter f : formatters) {
+            source.append(f.toString());
+        }
+        return new TemplateProgram(source.toString(), assembler);
+    }
+
+    /**
+     * Get the instructions
+     *
+     * @return the instruction stream, must not be modified
+     */
+    @NotNull
+    int[] getCode() {
+        return code;
+    }
+
+    /**
+     * Get the constant pool
+     *
+     * @return the constants, must not be modified
+     */
+    @NotNull
+    String[] getConstants() {
+        return constants;
+    }
+
+    @Override
+    @NotNull
+    public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        StringBuilder builder = new StringBuilder();
+        formatTo(builder, type, meta, tags);
+        return builder.toString();
+    }
+
+    @Override
+    public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        if (stackSize == 0) {
+            run(builder, type, meta, tags, null, 0);
+            return;
+        }
+        Stack stack = STACK.get();
+        int base = stack.top;
+        if (base + stackSize > stack.data.length) {
+            stack.data = Arrays.copyOf(stack.data, Math.max(stack.data.length * 2, base + stackSize));
+        }
+        stack.top = base + stackSize;
+        try {
+            run(builder, type, meta, tags, stack.data, base);
+        } finally {
+            stack.top = base;
+        }
+    }
+
+    /**
+     * Run the instructions
+     *
+     * @param builder the StringBuilder to append to
+     * @param type the type of the element
+     * @param meta the Meta object of the element or null
+     * @param tags the tags of the element or null
+     * @param stack the stack of output lengths, null if the program doesn't use it
+     * @param sp the first free entry of the stack
+     */
+    private void run(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags, @Nullable int[] stack,
+            int sp) {
+        final int[] c = code;
+        int pc = 0;
+        while (pc < c.length) {
+            switch (c[pc]) {
+            case LITERAL:
+                builder.append(constants[c[pc + 1]]);
+                pc += 2;
+                break;
+            case TAG:
+            case DISPLAY_TAG:
+                if (tags != null) {
+                    String key = constants[c[pc + 1]];
+                    String value = tags.get(key);
+                    if (value != null) {
+                        builder.append(meta != null && c[pc] == DISPLAY_TAG ? meta.displayValue(key, value) : value);
+                    }
+                }
+                pc += 2;
+                break;
+            case SPECIAL:
+                SPECIALS[c[pc + 1]].append(builder, type, meta, tags);
+                pc += 2;
+                break;
+            case BRANCH_IF_FALSE:
+                pc = conditions[c[pc + 1]].eval(type, meta, tags) ? pc + 3 : c[pc + 2];
+                break;
+            case JUMP:
+                pc = c[pc + 1];
+                break;
+            case JUMP_IF_NO_TAGS:
+                pc = tags == null ? c[pc + 1] : pc + 2;
+                break;
+            case MARK:
+                stack[sp++] = builder.length(); // NOSONAR stack is allocated if the program contains MARK
+                pc++;
+                break;
+            case CHECK:
+                if (builder.length() == stack[--sp]) { // NOSONAR
+                    builder.setLength(stack[--sp]);
+                    pc = c[pc + 1];
+                } else {
+                    pc += 2;
+                }
+                break;
+            case DROP:
+                sp--;
+                pc++;
+                break;
+            case FORMATTER:
+                calls[c[pc + 1]].formatTo(builder, type, meta, tags);
+                pc += 2;
+                break;
+            default:
+                throw new IllegalStateException("Unknown instruction " + c[pc] + " at " + pc);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * Translates formatters to instructions
+     */
+    private static final class Assembler {
+        private int[]                      code       = new int[16];
+        private int                        size       = 0;
+        private int                        maxDepth   = 0;
+        private final List<String>         constants  = new ArrayList<>();
+        private final Map<String, Integer> pool       = new HashMap<>();
+        private final List<Condition>      conditions = new ArrayList<>();
+        private final List<Formatter>      calls      = new ArrayList<>();
+
+        /**
+         * Translate a list of formatters
+         *
+         * @param formatters the formatters
+         * @param depth the number of entries on the stack when the formatters are run
+         */
+        void list(@NotNull List<Formatter> formatters, int depth) {
+            for (Formatter f : formatters) {
+                formatter(f, depth);
+            }
+        }
+
+        /**
+         * Translate a single formatter
+         *
+         * @param f the formatter
+         * @param depth the number of entries on the stack when the formatter is run
+         */
+        void formatter(@NotNull Formatter f, int depth) {
+            if (f instanceof Literal) {
+                emit(LITERAL, constant(((Literal) f).getValue()));
+            } else if (f instanceof Tag) {
+                emit(((Tag) f).useDisplayValue() ? DISPLAY_TAG : TAG, constant(((Tag) f).getKey()));
+            } else if (f instanceof Special && ((Special) f).getHandler() instanceof BuiltinSpecial) {
+                emit(SPECIAL, ((BuiltinSpecial) ((Special) f).getHandler()).ordinal());
+            } else if (f instanceof Special && ((Special) f).getHandler() == null) {
+                // produces no output
+            } else if (f instanceof Conditional) {
+                conditional((Conditional) f, depth);
+            } else {
+                calls.add(f);
+                emit(FORMATTER, calls.size() - 1);
+            }
+        }
+
+        /**
+         * Translate a conditional
+         *
+         * @param conditional the Conditional
+         * @param depth the number of entries on the stack when the conditional is run
+         */
+        private void conditional(@NotNull Conditional conditional, int depth) {
+            List<Conditional.ConditionalValue> branches = conditional.getConditions();
+            if (branches.isEmpty()) {
+                return;
+            }
+            List<Integer> exits = new ArrayList<>();
+            emit(JUMP_IF_NO_TAGS, 0);
+            exits.add(size - 1);
+            int lastIndex = branches.size() - 1;
+            for (int i = 0; i < lastIndex; i++) {
+                Conditional.ConditionalValue cv = branches.get(i);
+                if (cv.condition != null) {
+                    conditions.add(cv.condition);
+                    emit(BRANCH_IF_FALSE, conditions.size() - 1, 0);
+                    int next = size - 1;
+                    list(cv.values, depth);
+                    emit(JUMP, 0);
+                    exits.add(size - 1);
+                    code[next] = size;
+                } else if (!cv.values.isEmpty()) { // an empty implicit branch is never used
+                    maxDepth = Math.max(maxDepth, depth + 2);
+                    emit(MARK);
+                    List<Integer> fails = new ArrayList<>();
+                    for (Formatter f : cv.values) {
+                        emit(MARK);
+                        formatter(f, depth + 2);
+                        emit(CHECK, 0);
+                        fails.add(size - 1);
+                    }
+                    emit(DROP);
+                    emit(JUMP, 0);
+                    exits.add(size - 1);
+                    for (int fail : fails) {
+                        code[fail] = size;
+                    }
+                }
+            }
+            list(branches.get(lastIndex).values, depth);
+            for (int exit : exits) {
+                code[exit] = size;
+            }
+        }
+
+        /**
+         * Get the index of a constant adding it to the pool if necessary
+         *
+         * @param value the constant
+         * @return the index in the pool
+         */
+        private int constant(@NotNull String value) {
+            return pool.computeIfAbsent(value, v -> {
+                constants.add(v);
+                return constants.size() - 1;
+            });
+        }
+
+        /**
+         * Append an instruction
+         *
+         * @param instruction the opcode followed by its operands
+         */
+        private void emit(int... instruction) {
+            if (size + instruction.length > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + instruction.length));
+            }
+            System.arraycopy(instruction, 0, code, size, instruction.length);
+            size += instruction.length;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Write parsed templates in a compact binary format that can be read with {@link TemplateStore}
+ *
+ * Layout, all integers big endian:
+ * <ul>
+ * <li>header: magic "JTPS", format version, data version (long), number of templates</li>
+ * <li>index: for each template its name and the offset of its data relative to the start of the data section</li>
+ * <li>data: the encoded templates</li>
+ * </ul>
+ * Conditions are stored as their source and parsed again when a template is loaded. Only the formatters of this library
+ * can be written.
+ *
+ * @author simon
+ *
+ */
+public final class TemplateSerializer {
+
+    static final int MAGIC          = 0x4A545053; // JTPS
+    static final int FORMAT_VERSION = 1;
+
+    static final byte LITERAL     = 0;
+    static final byte TAG         = 1;
+    static final byte SPECIAL     = 2;
+    static final byte CONDITIONAL = 3;
+    static final byte SEARCH      = 4;
+
+    /**
+     * Private constructor
+     */
+    private TemplateSerializer() {
+        // nothing
+    }
+
+    /**
+     * Write templates
+     *
+     * @param out the OutputStream, not closed
+     * @param templates the parsed templates by name
+     * @param dataVersion a version for the templates, for example a hash of their source, that is checked when loading
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if a template contains a Formatter that can't be serialized
+     */
+    public static void write(@NotNull OutputStream out, @NotNull Map<String, List<Formatter>> templates, long dataVersion) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(data);
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        for (Entry<String, List<Formatter>> entry : templates.entrySet()) {
+            writeString(indexOut, entry.getKey());
+            indexOut.writeInt(dataOut.size());
+            writeList(dataOut, entry.getValue());
+        }
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT_VERSION);
+        header.writeLong(dataVersion);
+        header.writeInt(templates.size());
+        header.writeInt(index.size());
+        index.writeTo(header);
+        data.writeTo(header);
+        header.flush();
+    }
+
+    /**
+     * Write a list of formatters
+     *
+     * @param out the output
+     * @param formatters the formatters
+     * @throws IOException if writing fails
+     */
+    private static void writeList(@NotNull DataOutputStream out, @NotNull List<Formatter> formatters) throws IOException {
+        out.writeInt(formatters.size());
+        for (Formatter f : formatters) {
+            write(out, f);
+        }
+    }
+
+    /**
+     * Write a single formatter
+     *
+     * @param out the output
+     * @param f the formatter
+     * @throws IOException if writing fails
+     */
+    private static void write(@NotNull DataOutputStream out, @NotNull Formatter f) throws IOException {
+        if (f instanceof Literal) {
+            out.writeByte(LITERAL);
+            writeString(out, ((Literal) f).getValue());
+        } else if (f instanceof Tag) {
+            out.writeByte(TAG);
+            writeString(out, ((Tag) f).getKey());
+            out.writeBoolean(((Tag) f).useDisplayValue());
+        } else if (f instanceof Special) {
+            out.writeByte(SPECIAL);
+            writeString(out, ((Special) f).getKey());
+        } else if (f instanceof Conditional) {
+            out.writeByte(CONDITIONAL);
+            List<Conditional.ConditionalValue> branches = ((Conditional) f).getConditions();
+            out.writeInt(branches.size());
+            for (Conditional.ConditionalValue cv : branches) {
+                if (cv.condition != null && cv.source == null) {
+                    throw new IllegalArgumentException("Condition without source " + cv.condition);
+                }
+                out.writeBoolean(cv.condition != null);
+                if (cv.condition != null) {
+                    writeString(out, cv.source);
+                }
+                writeList(out, cv.values);
+            }
+        } else if (f instanceof Search) {
+            out.writeByte(SEARCH);
+            writeString(out, ((Search) f).getSource());
+            writeList(out, ((Search) f).getFormatters());
+        } else {
+            throw new IllegalArgumentException("Can't serialize " + f.getClass().getName());
+        }
+    }
+
+    /**
+     * Write a String as length and UTF-8 bytes
+     *
+     * @param out the output
+     * @param s the String
+     * @throws IOException if writing fails
+     */
+    private static void writeString(@NotNull DataOutputStream out, @NotNull String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
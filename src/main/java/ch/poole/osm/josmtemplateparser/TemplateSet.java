@@ -0,0 +1,323 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Several templates that are formatted together for the same element
+ *
+ * Tag values and the results of explicit conditions with the same source are shared between the templates, each is
+ * read resp. evaluated at most once per element. Instances are immutable and can be shared between threads.
+ *
+ * @author simon
+ *
+ */
+public final class TemplateSet {
+
+    private final CompiledTemplate[] templates;
+    private final KeyDictionary      dictionary;
+    private final int                keyCount;
+    private final int                conditionCount;
+
+    /**
+     * Construct a new set
+     *
+     * @param templates the compiled templates
+     * @param dictionary the KeyDictionary the templates are bound to
+     * @param conditionCount the number of distinct conditions
+     */
+    private TemplateSet(@NotNull CompiledTemplate[] templates, @NotNull KeyDictionary dictionary, int conditionCount) {
+        this.templates = templates;
+        this.dictionary = dictionary;
+        this.keyCount = dictionary.size();
+        this.conditionCount = conditionCount;
+    }
+
+    /**
+     * Compile several parsed templates
+     *
+     * @param templates the output of the parser for each template
+     * @return a TemplateSet
+     */
+    @NotNull
+    public static TemplateSet compile(@NotNull List<List<Formatter>> templates) {
+        return compile(templates, new KeyDictionary());
+    }
+
+    /**
+     * Compile several parsed templates binding their tags to slots in a KeyDictionary
+     *
+     * @param templates the output of the parser for each template
+     * @param dictionary the KeyDictionary
+     * @return a TemplateSet
+     */
+    @NotNull
+    public static TemplateSet compile(@NotNull List<List<Formatter>> templates, @NotNull KeyDictionary dictionary) {
+        Map<String, Integer> conditionSlots = new HashMap<>();
+        CompiledTemplate[] compiled = new CompiledTemplate[templates.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            List<Formatter> bound = CompiledTemplate.bind(templates.get(i), dictionary);
+            List<Formatter> optimized = EqualityDispatch.apply(Optimizer.optimize(bound), dictionary);
+            compiled[i] = CompiledTemplate.compileOptimized(bound, share(optimized, conditionSlots));
+        }
+        return new TemplateSet(compiled, dictionary, conditionSlots.size());
+    }
+
+    /**
+     * Replace conditionals with versions that share condition results
+     *
+     * @param formatters the formatters
+     * @param conditionSlots map from condition source to slot, new conditions are added
+     * @return a new List of Formatter
+     */
+    @NotNull
+    private static List<Formatter> share(@NotNull List<Formatter> formatters, @NotNull Map<String, Integer> conditionSlots) {
+        List<Formatter> result = new ArrayList<>(formatters.size());
+        for (Formatter f : formatters) {
+            if (f instanceof Conditional) {
+                List<Conditional.ConditionalValue> branches = ((Conditional) f).getConditions();
+                Conditional conditional = new Conditional();
+                int[] slots = new int[branches.size()];
+                for (int i = 0; i < slots.length; i++) {
+                    Conditional.ConditionalValue cv = branches.get(i);
+                    slots[i] = cv.condition != null && cv.source != null ? conditionSlots.computeIfAbsent(cv.source, s -> conditionSlots.size()) : -1;
+                    conditional.add(cv.condition, cv.source, share(cv.values, conditionSlots));
+                }
+                result.add(new SharedConditional(conditional, slots));
+            } else {
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of templates
+     *
+     * @return the number of templates in the set
+     */
+    public int size() {
+        return templates.length;
+    }
+
+    /**
+     * Format a concrete OSM element with all templates
+     *
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element or null
+     * @return an array with the output of each template in the order they were compiled
+     */
+    @NotNull
+    public String[] format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+        return format(type, meta, tags != null ? new Memo(this, tags, null) : null);
+    }
+
+    /**
+     * Format a concrete OSM element with all templates reading its tags from a TagSource
+     *
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param tags tags of the OSM element or null, must use the KeyDictionary the set was compiled against
+     * @return an array with the output of each template in the order they were compiled
+     */
+    @NotNull
+    public String[] formatFrom(@NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+        return format(type, meta, tags != null ? new Memo(this, null, tags) : null);
+    }
+
+    /**
+     * Format with all templates
+     *
+     * @param type the Type of the OSM element
+     * @param meta meta information for the OSM element or null
+     * @param memo the per element state or null
+     * @return an array with the output of each template
+     */
+    @NotNull
+    private String[] format(@NotNull Type type, @Nullable Meta meta, @Nullable Memo memo) {
+        String[] result = new String[templates.length];
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < templates.length; i++) {
+            builder.setLength(0);
+            templates[i].formatFrom(builder, type, meta, memo);
+            result[i] = builder.toString();
+        }
+        return result;
+    }
+
+    /**
+     * Tag values and condition results of the element that is being formatted
+     */
+    private static final class Memo implements TagSource {
+        private static final String NOT_LOADED = new String(); // NOSONAR compared by identity
+        private static final byte   UNKNOWN    = 0;
+        private static final byte   TRUE       = 1;
+        private static final byte   FALSE      = 2;
+
+        private final KeyDictionary dictionary;
+        private Map<String, String> map;
+        private final TagSource     source;
+        private boolean             mapLoaded;
+        private final String[]      values;
+        private final byte[]        conditions;
+
+        /**
+         * Construct a new instance
+         *
+         * @param set the TemplateSet
+         * @param map the tags as a Map or null
+         * @param source the tags as a TagSource or null
+         */
+        Memo(@NotNull TemplateSet set, @Nullable Map<String, String> map, @Nullable TagSource source) {
+            dictionary = set.dictionary;
+            this.map = map;
+            mapLoaded = map != null;
+            this.source = source;
+            values = new String[set.keyCount];
+            Arrays.fill(values, NOT_LOADED);
+            conditions = new byte[set.conditionCount];
+        }
+
+        @Override
+        @Nullable
+        public String get(int slot) {
+            if (slot >= values.length) {
+                return read(slot);
+            }
+            String value = values[slot];
+            if (value == NOT_LOADED) { // NOSONAR
+                value = read(slot);
+                values[slot] = value;
+            }
+            return value;
+        }
+
+        /**
+         * Read a value from the underlying tags
+         *
+         * @param slot the slot
+         * @return the value or null
+         */
+        @Nullable
+        private String read(int slot) {
+            if (source != null) {
+                return source.get(slot);
+            }
+            String key = dictionary.getKey(slot);
+            return key != null ? map.get(key) : null;
+        }
+
+        @Override
+        @Nullable
+        public Map<String, String> asMap() {
+            if (!mapLoaded) {
+                map = source.asMap();
+                mapLoaded = true;
+            }
+            return map;
+        }
+
+        /**
+         * Evaluate a condition once
+         *
+         * @param slot the slot of the condition, or -1 if it isn't shared
+         * @param condition the Condition
+         * @param type the Type of the OSM element
+         * @param meta meta information for the OSM element or null
+         * @param tags tags of the OSM element
+         * @return the result of the condition
+         */
+        boolean eval(int slot, @NotNull Condition condition, @NotNull Type type, @Nullable Meta meta, @NotNull Map<String, String> tags) {
+            if (slot < 0) {
+                return condition.eval(type, meta, tags);
+            }
+            byte result = conditions[slot];
+            if (result == UNKNOWN) {
+                result = condition.eval(type, meta, tags) ? TRUE : FALSE;
+                conditions[slot] = result;
+            }
+            return result == TRUE;
+        }
+    }
+
+    /**
+     * Conditional that looks up the result of explicit conditions in a Memo
+     */
+    private static final class SharedConditional implements Formatter {
+        private final Conditional conditional;
+        private final int[]       slots;
+
+        /**
+         * Construct a new instance
+         *
+         * @param conditional the Conditional
+         * @param slots the slots of the conditions, -1 for implicit conditions
+         */
+        SharedConditional(@NotNull Conditional conditional, @NotNull int[] slots) {
+            this.conditional = conditional;
+            this.slots = slots;
+        }
+
+        @Override
+        @NotNull
+        public String format(@NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            return conditional.format(type, meta, tags);
+        }
+
+        @Override
+        public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
+            conditional.formatTo(builder, type, meta, tags);
+        }
+
+        @Override
+        public void formatTo(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags, int limit) {
+            conditional.formatTo(builder, type, meta, tags, limit);
+        }
+
+        @Override
+        public void formatFrom(@NotNull StringBuilder builder, @NotNull Type type, @Nullable Meta meta, @Nullable TagSource tags) {
+            if (!(tags instanceof Memo)) {
+                conditional.formatFrom(builder, type, meta, tags);
+                return;
+            }
+            Memo memo = (Memo) tags;
+            List<Conditional.ConditionalValue> branches = conditional.getConditions();
+            if (branches.isEmpty()) {
+                return;
+            }
+            int lastIndex = branches.size() - 1;
+            for (int i = 0; i < lastIndex; i++) {
+                Conditional.ConditionalValue cv = branches.get(i);
+                if (cv.condition != null) {
+                    Map<String, String> map = memo.asMap();
+                    if (map == null) {
+                        return;
+                    }
+                    if (memo.eval(slots[i], cv.condition, type, meta, map)) {
+                        Conditional.formatValuesFrom(builder, cv.values, type, meta, memo);
+                        return;
+                    }
+                } else if (Conditional.formatImplicitFrom(builder, cv.values, type, meta, memo)) {
+                    return;
+                }
+            }
+            Conditional.formatValuesFrom(builder, branches.get(lastIndex).values, type, meta, memo);
+        }
+
+        @Override
+        public String toString() {
+            return conditional.toString();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package ch.poole.osm.josmtemplateparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Condition;
+
+/**
+ * Read templates written by {@link TemplateSerializer}
+ *
+ * Opening a store only reads the index, templates are decoded when they are first requested. Files are memory mapped.
+ * Stores can be used concurrently.
+ *
+ * @author simon
+ *
+ */
+public class TemplateStore {
+
+    private final ByteBuffer                   buffer;
+    private final long                         dataVersion;
+    private final Map<String, Integer>         offsets;
+    private final int                          dataStart;
+    private final Map<String, List<Formatter>> templates  = new ConcurrentHashMap<>();
+    private final Map<String, Condition>       conditions = new HashMap<>(); // only accessed in decode
+    private final NestedParser                 parser     = new NestedParser();
+
+    /**
+     * Open a store from a file
+     *
+     * @param file the file
+     * @param expectedDataVersion the data version the templates were written with
+     * @return a TemplateStore
+     * @throws IOException if the file can't be read, isn't a template store or has the wrong version
+     */
+    @NotNull
+    public static TemplateStore open(@NotNull File file, long expectedDataVersion) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            return new TemplateStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), expectedDataVersion);
+        }
+    }
+
+    /**
+     * Construct a store from a buffer
+     *
+     * @param buffer the buffer containing the serialized templates starting at its current position
+     * @param expectedDataVersion the data version the templates were written with
+     * @throws IOException if the buffer doesn't contain a template store or has the wrong version
+     */
+    public TemplateStore(@NotNull ByteBuffer buffer, long expectedDataVersion) throws IOException {
+        this.buffer = buffer.slice();
+        try {
+            ByteBuffer header = this.buffer.duplicate();
+            if (header.getInt() != TemplateSerializer.MAGIC) {
+                throw new IOException("Not a template store");
+            }
+            int formatVersion = header.getInt();
+            if (formatVersion != TemplateSerializer.FORMAT_VERSION) {
+                throw new IOException("Unsupported template store format " + formatVersion);
+            }
+            dataVersion = header.getLong();
+            if (dataVersion != expectedDataVersion) {
+                throw new IOException("Stale template store, data version " + dataVersion + " expected " + expectedDataVersion);
+            }
+            int count = header.getInt();
+            int indexSize = header.getInt();
+            dataStart = header.position() + indexSize;
+            Map<String, Integer> index = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = readString(header);
+                index.put(name, header.getInt());
+            }
+            offsets = Collections.unmodifiableMap(index);
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new IOException("Truncated template store", ex);
+        }
+    }
+
+    /**
+     * Get the data version
+     *
+     * @return the data version the store was written with
+     */
+    public long getDataVersion() {
+        return dataVersion;
+    }
+
+    /**
+     * Get the names of the templates
+     *
+     * @return an unmodifiable Set of names in the order they were written
+     */
+    @NotNull
+    public Set<String> names() {
+        return offsets.keySet();
+    }
+
+    /**
+     * Get a template
+     *
+     * @param name the name the template was written with
+     * @return an unmodifiable List of Formatter or null if there is no such template
+     * @throws ParseException if a condition can't be parsed or the data is corrupt
+     */
+    @Nullable
+    public List<Formatter> get(@NotNull String name) throws ParseException {
+        List<Formatter> result = templates.get(name);
+        if (result == null) {
+            Integer offset = offsets.get(name);
+            if (offset == null) {
+                return null;
+            }
+            result = decode(offset);
+            List<Formatter> previous = templates.putIfAbsent(name, result);
+            if (previous != null) {
+                result = previous;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Decode a template
+     *
+     * @param offset the offset relative to the data section
+     * @return an unmodifiable List of Formatter
+     * @throws ParseException if a condition can't be parsed or the data is corrupt
+     */
+    @NotNull
+    private synchronized List<Formatter> decode(int offset) throws ParseException {
+        try {
+            ByteBuffer data = buffer.duplicate();
+            data.position(dataStart + offset);
+            return Collections.unmodifiableList(readList(data));
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new ParseException("Corrupt template store " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Read a list of formatters
+     *
+     * @param data the buffer
+     * @return a List of Formatter
+     * @throws ParseException if a condition can't be parsed or the data is corrupt
+     */
+    @NotNull
+    private List<Formatter> readList(@NotNull ByteBuffer data) throws ParseException {
+        int size = data.getInt();
+        List<Formatter> result = new ArrayList<>(Math.min(size, data.remaining()));
+        for (int i = 0; i < size; i++) {
+            result.add(read(data));
+        }
+        return result;
+    }
+
+    /**
+     * Read a single formatter
+     *
+     * @param data the buffer
+     * @return a Formatter
+     * @throws ParseException if a condition can't be parsed or the data is corrupt
+     */
+    @NotNull
+    private Formatter read(@NotNull ByteBuffer data) throws ParseException {
+        byte kind = data.get();
+        switch (kind) {
+        case TemplateSerializer.LITERAL:
+            return new Literal(readString(data));
+        case TemplateSerializer.TAG:
+            String key = readString(data);
+            return new Tag(key, data.get() != 0);
+        case TemplateSerializer.SPECIAL: // the handler may not be registered any more, decode as the parser would
+            return SpecialHandlers.formatter(readString(data));
+        case TemplateSerializer.CONDITIONAL:
+            Conditional conditional = new Conditional();
+            int branches = data.getInt();
+            for (int i = 0; i < branches; i++) {
+                String source = data.get() != 0 ? readString(data) : null;
+                conditional.add(source != null ? condition(source) : null, source, readList(data));
+            }
+            return conditional;
+        case TemplateSerializer.SEARCH:
+            String source = readString(data);
+            return new Search(condition(source), source, readList(data));
+        default:
+            throw new ParseException("Corrupt template store, unknown formatter " + kind);
+        }
+    }
+
+    /**
+     * Get the parsed condition for a source, conditions are shared between templates
+     *
+     * @param source the condition source
+     * @return the Condition
+     * @throws ParseException if the condition can't be parsed
+     */
+    @NotNull
+    private Condition condition(@NotNull String source) throws ParseException {
+        Condition condition = conditions.get(source);
+        if (condition == null) {
+            condition = parser.condition(source);
+            conditions.put(source, condition);
+        }
+        return condition;
+    }
+
+    /**
+     * Read a String written as length and UTF-8 bytes
+     *
+     * @param data the buffer
+     * @return the String
+     */
+    @NotNull
+    private static String readString(@NotNull ByteBuffer data) {
+        int length = data.getInt();
+        if (length < 0 || length > data.remaining()) {
+            throw new IllegalArgumentException("invalid string length " + length);
+        }
+        String result;
+        if (data.hasArray()) {
+            result = new String(data.array(), data.arrayOffset() + data.position(), length, StandardCharsets.UTF_8);
+            data.position(data.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            data.get(bytes);
+            result = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+}
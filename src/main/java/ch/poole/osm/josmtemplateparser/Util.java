@@ -1,7 +1,9 @@
 package ch.poole.osm.josmtemplateparser;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.UnaryOperator;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -29,9 +31,137 @@ public final class Util {
      */
     public static String listFormat(@NotNull List<Formatter> formatters, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags) {
         StringBuilder builder = new StringBuilder();
+        listFormatTo(builder, formatters, type, meta, tags);
+        return builder.toString();
+    }
+
+    /**
+     * Execute a list of formatters appending the output to builder
+     * 
+     * @param builder the StringBuilder to append to
+     * @param formatters the formatters
+     * @param type object type
+     * @param meta object meta
+     * @param tags object tags
+     */
+    public static void listFormatTo(@NotNull StringBuilder builder, @NotNull List<Formatter> formatters, @NotNull Type type, @Nullable Meta meta,
+            @Nullable Map<String, String> tags) {
         for (Formatter f : formatters) {
-            builder.append(f.format(type, meta, tags));
+            f.formatTo(builder, type, meta, tags);
         }
+    }
+
+    /**
+     * Execute a list of formatters producing at most maxChars characters
+     * 
+     * Formatters are not run once the output has reached maxChars characters
+     * 
+     * @param formatters the formatters
+     * @param type object type
+     * @param meta object meta
+     * @param tags object tags
+     * @param maxChars the maximum length of the output
+     * @return a formated string truncated to maxChars
+     */
+    public static String listFormat(@NotNull List<Formatter> formatters, @NotNull Type type, @Nullable Meta meta, @Nullable Map<String, String> tags,
+            int maxChars) {
+        checkMaxChars(maxChars);
+        StringBuilder builder = new StringBuilder(Math.min(maxChars, CompiledTemplate.ESTIMATED_VALUE_LENGTH * 4));
+        listFormatTo(builder, formatters, type, meta, tags, maxChars);
         return builder.toString();
     }
+
+    /**
+     * Execute a list of formatters appending at most maxChars characters to builder
+     * 
+     * Formatters are not run once the output has reached maxChars characters
+     * 
+     * @param builder the StringBuilder to append to
+     * @param formatters the formatters
+     * @param type object type
+     * @param meta object meta
+     * @param tags object tags
+     * @param maxChars the maximum number of characters to append
+     */
+    public static void listFormatTo(@NotNull StringBuilder builder, @NotNull List<Formatter> formatters, @NotNull Type type, @Nullable Meta meta,
+            @Nullable Map<String, String> tags, int maxChars) {
+        int limit = limit(builder, maxChars);
+        listFormatToLimit(builder, formatters, type, meta, tags, limit);
+        if (builder.length() > limit) {
+            builder.setLength(limit);
+        }
+    }
+
+    /**
+     * Execute a list of formatters until builder has reached a length
+     * 
+     * @param builder the StringBuilder to append to
+     * @param formatters the formatters
+     * @param type object type
+     * @param meta object meta
+     * @param tags object tags
+     * @param limit the length of builder after which no further output is needed
+     */
+    static void listFormatToLimit(@NotNull StringBuilder builder, @NotNull List<Formatter> formatters, @NotNull Type type, @Nullable Meta meta,
+            @Nullable Map<String, String> tags, int limit) {
+        for (Formatter f : formatters) {
+            if (builder.length() >= limit) {
+                return;
+            }
+            f.formatTo(builder, type, meta, tags, limit);
+        }
+    }
+
+    /**
+     * Check that a maximum number of characters is valid
+     * 
+     * @param maxChars the maximum number of characters
+     * @throws IllegalArgumentException if maxChars is negative
+     */
+    static void checkMaxChars(int maxChars) {
+        if (maxChars < 0) {
+            throw new IllegalArgumentException("maxChars must not be negative");
+        }
+    }
+
+    /**
+     * Get the builder length corresponding to a maximum number of characters to append
+     * 
+     * @param builder the StringBuilder
+     * @param maxChars the maximum number of characters to append
+     * @return the limit
+     */
+    static int limit(@NotNull StringBuilder builder, int maxChars) {
+        checkMaxChars(maxChars);
+        return maxChars > Integer.MAX_VALUE - builder.length() ? Integer.MAX_VALUE : builder.length() + maxChars;
+    }
+
+    /**
+     * Replace the leaf formatters of a template, recursing in to conditionals, searches and compiled templates
+     * 
+     * @param formatters the formatters
+     * @param replacement returns the replacement for a leaf formatter, or the formatter itself
+     * @return a new List of Formatter
+     */
+    @NotNull
+    static List<Formatter> replace(@NotNull List<Formatter> formatters, @NotNull UnaryOperator<Formatter> replacement) {
+        List<Formatter> result = new ArrayList<>(formatters.size());
+        for (Formatter f : formatters) {
+            if (f instanceof Conditional) {
+                Conditional conditional = new Conditional();
+                for (Conditional.ConditionalValue cv : ((Conditional) f).getConditions()) {
+                    conditional.add(cv.condition, cv.source, replace(cv.values, replacement));
+                }
+                result.add(conditional);
+            } else if (f instanceof Search) {
+                Search search = (Search) f;
+                result.add(new Search(search.getCondition(), search.getSource(), replace(search.getFormatters(), replacement)));
+            } else if (f instanceof CompiledTemplate) {
+                result.add(CompiledTemplate.compile(replace(((CompiledTemplate) f).getFormatters(), replacement)));
+            } else {
+                result.add(replacement.apply(f));
+            }
+        }
+        return result;
+    }
 }
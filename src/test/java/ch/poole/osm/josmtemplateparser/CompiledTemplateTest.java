@@ -0,0 +1,59 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for CompiledTemplate
+ *
+ * @author Simon Poole
+ *
+ */
+public class CompiledTemplateTest {
+
+    private static final String[] TEMPLATES = { "Bus", "{name}", "{%name}", "{ref} {name}", "Bus {ref}: {name} ({operator})",
+            "{special:id}", "?{'{from} - {to}' | '{from}' | 'none'}", "{ref} ?{ admin_level = 2 'NUTS 1' | 'Admin level {admin_level}'} {name}" };
+
+    /**
+     * Compiled templates should produce the same output as the parsed ones
+     */
+    @Test
+    public void equivalenceTest() throws ParseException {
+        TestMeta meta = new TestMeta();
+        meta.id = 42L;
+        Map<String, String> tags = new HashMap<>();
+        tags.put("name", "Main street");
+        tags.put("ref", "1");
+        tags.put("from", "a");
+        tags.put("admin_level", "4");
+        for (String template : TEMPLATES) {
+            List<Formatter> formatters = JosmTemplateParser.parse(template);
+            CompiledTemplate compiled = CompiledTemplate.compile(formatters);
+            assertEquals(template, Util.listFormat(formatters, Type.WAY, meta, tags), compiled.format(Type.WAY, meta, tags));
+            assertEquals(template, Util.listFormat(formatters, Type.WAY, meta, null), compiled.format(Type.WAY, meta, null));
+            StringBuilder builder = new StringBuilder("x");
+            compiled.formatTo(builder, Type.WAY, meta, tags);
+            assertEquals(template, "x" + Util.listFormat(formatters, Type.WAY, meta, tags), builder.toString());
+            assertEquals(formatters.toString(), compiled.toString());
+        }
+    }
+
+    /**
+     * Check that the expected implementation is selected
+     */
+    @Test
+    public void shapeTest() throws ParseException {
+        assertTrue(CompiledTemplate.compile(JosmTemplateParser.parse("Bus")) instanceof CompiledTemplate.Constant);
+        assertTrue(CompiledTemplate.compile(JosmTemplateParser.parse("{name}")) instanceof CompiledTemplate.Single);
+        assertTrue(CompiledTemplate.compile(JosmTemplateParser.parse("{ref} {name}")) instanceof CompiledTemplate.LiteralTagSequence);
+        assertTrue(CompiledTemplate.compile(JosmTemplateParser.parse("{ref} {special:id}")) instanceof CompiledTemplate.Sequence);
+    }
+}
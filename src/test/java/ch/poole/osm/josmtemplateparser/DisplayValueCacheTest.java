@@ -0,0 +1,95 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for DisplayValueCache
+ *
+ * @author Simon Poole
+ *
+ */
+public class DisplayValueCacheTest {
+
+    /**
+     * Meta that counts display value lookups
+     */
+    private static class CountingMeta extends TestMeta {
+        private static final long serialVersionUID = 1L;
+
+        int    calls;
+        String suffix = "";
+
+        @Override
+        public String displayValue(@NotNull String key, @NotNull String value) {
+            calls++;
+            return super.displayValue(key, value) + suffix;
+        }
+    }
+
+    /**
+     * Display values should only be determined once per key and value
+     */
+    @Test
+    public void cacheTest() {
+        DisplayValueCache cache = new DisplayValueCache();
+        CountingMeta meta = new CountingMeta();
+        assertEquals("PRIMARY", cache.get(meta, "highway", "primary"));
+        assertEquals("PRIMARY", cache.get(meta, "highway", "primary"));
+        assertEquals("SCHOOL", cache.get(meta, "amenity", "school"));
+        assertEquals(2, meta.calls);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        meta.suffix = "!";
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        assertEquals("PRIMARY!", cache.get(meta, "highway", "primary"));
+        assertEquals(3, meta.calls);
+    }
+
+    /**
+     * Values beyond the per key limit and keys beyond the key limit are not cached
+     */
+    @Test
+    public void limitTest() {
+        DisplayValueCache cache = new DisplayValueCache(1, 2);
+        CountingMeta meta = new CountingMeta();
+        for (int i = 0; i < 2; i++) {
+            cache.get(meta, "name", "a");
+            cache.get(meta, "name", "b");
+            cache.get(meta, "name", "c");
+            cache.get(meta, "ref", "1");
+        }
+        assertEquals(2, cache.size());
+        assertEquals(6, meta.calls);
+    }
+
+    /**
+     * Templates compiled by an engine use its cache
+     */
+    @Test
+    public void engineTest() throws ParseException {
+        DisplayValueCache cache = new DisplayValueCache();
+        TemplateEngine engine = new TemplateEngine(ForkJoinPool.commonPool(), TemplateEngine.DEFAULT_THRESHOLD, cache);
+        CompiledTemplate template = engine.compile(JosmTemplateParser.parse("{%highway} ?{ name '{%name}' | '{ref}'}"));
+        CountingMeta meta = new CountingMeta();
+        Map<String, String> tags = new HashMap<>();
+        tags.put("highway", "primary");
+        tags.put("name", "Main");
+        assertEquals("PRIMARY MAIN", template.format(Type.WAY, meta, tags));
+        assertEquals("PRIMARY MAIN", template.format(Type.WAY, meta, tags));
+        assertEquals(2, meta.calls);
+        assertEquals(2, cache.size());
+        assertEquals("primary Main", template.format(Type.WAY, null, tags));
+    }
+}
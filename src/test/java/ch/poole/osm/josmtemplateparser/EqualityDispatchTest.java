@@ -0,0 +1,133 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.JosmFilterParser;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for EqualityDispatch
+ *
+ * @author Simon Poole
+ *
+ */
+public class EqualityDispatchTest {
+
+    private static final String[] TEMPLATES = {
+            "?{ admin_level = 2 'NUTS 1' | admin_level = 4 'NUTS 2' | admin_level = 6 'NUTS 3' | admin_level = 8 'LAU' | 'Admin level {admin_level}'}",
+            "{name} ?{ admin_level = 2 'a' | admin_level = 2 'b' | admin_level = 4 'c' | '{ref}' | highway = primary 'd' | highway = secondary 'e' | highway = tertiary 'f' | 'g'}",
+            "?{ highway = primary 'a' | highway = secondary 'b' | admin_level = 4 'c' | admin_level = 2 'd' | 'e'}",
+            "?{ highway = primary 'a' | highway = secondary 'b' | highway = tertiary 'c' | highway = residential 'd'}",
+            "?{ \"highway\" = \"primary\" 'a' | highway = \"secondary\" 'b' | \"highway\" = tertiary 'c' | 'd'}" };
+
+    /**
+     * Dispatch should produce the same output as sequential evaluation
+     */
+    @Test
+    public void equivalenceTest() throws ParseException {
+        String[] levels = { null, "2", "02", "4", "6", "8", "10" };
+        String[] highways = { null, "primary", "secondary", "tertiary", "residential", "Primary" };
+        KeyDictionary dictionary = new KeyDictionary();
+        for (String template : TEMPLATES) {
+            List<Formatter> formatters = JosmTemplateParser.parse(template);
+            CompiledTemplate compiled = CompiledTemplate.compile(formatters);
+            CompiledTemplate bound = CompiledTemplate.compile(formatters, dictionary);
+            for (String level : levels) {
+                for (String highway : highways) {
+                    Map<String, String> tags = new HashMap<>();
+                    tags.put("name", "Name");
+                    if (level != null) {
+                        tags.put("admin_level", level);
+                    }
+                    if (highway != null) {
+                        tags.put("highway", highway);
+                    }
+                    if (level == null) {
+                        tags.put("ref", "1");
+                    }
+                    String expected = Util.listFormat(formatters, Type.WAY, null, tags);
+                    assertEquals(template, expected, compiled.format(Type.WAY, null, tags));
+                    assertEquals(template, expected, bound.formatFrom(Type.WAY, null, new MapTagSource(dictionary, tags)));
+                    assertEquals(template, expected, compiled.formatFrom(Type.WAY, null, new MapTagSource(dictionary, tags)));
+                }
+            }
+            assertEquals(template, Util.listFormat(formatters, Type.WAY, null, null), compiled.format(Type.WAY, null, null));
+            assertEquals(template, formatters.toString(), compiled.toString());
+        }
+    }
+
+    /**
+     * Check when dispatch is used
+     */
+    @Test
+    public void selectionTest() throws ParseException {
+        assertTrue(CompiledTemplate.compile(JosmTemplateParser.parse(TEMPLATES[0])) instanceof CompiledTemplate.Single);
+        List<Formatter> dispatch = EqualityDispatch.apply(JosmTemplateParser.parse(TEMPLATES[0]), null);
+        assertTrue(dispatch.get(0) instanceof EqualityDispatch);
+        // runs shorter than MIN_CHAIN_LENGTH are evaluated sequentially
+        dispatch = EqualityDispatch.apply(JosmTemplateParser.parse(TEMPLATES[2]), null);
+        assertTrue(dispatch.get(0) instanceof Conditional);
+        // unrecognized conditions
+        dispatch = EqualityDispatch.apply(JosmTemplateParser.parse("?{ highway 'a' | name 'b' | ref 'c' | 'd'}"), null);
+        assertTrue(dispatch.get(0) instanceof Conditional);
+    }
+
+    /**
+     * Parse a filter expression
+     *
+     * @param expression the expression
+     * @return the Condition
+     */
+    private static Condition condition(String expression) throws ch.poole.osm.josmfilterparser.ParseException {
+        return new JosmFilterParser(new StringReader(expression)).condition();
+    }
+
+    /**
+     * Only the documented subset of the filter grammar is recognized as an equality test
+     */
+    @Test
+    public void subsetTest() throws ch.poole.osm.josmfilterparser.ParseException {
+        String[] recognized = { "admin_level = 2", "highway=primary", "\"name:de\" = \"Main Street\"", "one-way = yes" };
+        for (String source : recognized) {
+            assertNotNull(source, Conditions.equality(source, condition(source)));
+        }
+        Conditions.Equality equality = Conditions.equality(recognized[2], condition(recognized[2]));
+        assertEquals("name:de", equality.key);
+        assertEquals("Main Street", equality.value);
+        String[] rejected = { "name = Main*", "name = Ma?n", "name = \"a.b\"", "name = \"a\\\"b\"", "name = \" Main\"", "-name = x", "name:de = x",
+                "name ~ main", "admin_level > 2", "name", "name = x highway = y" };
+        for (String source : rejected) {
+            assertNull(source, Conditions.equality(source, condition(source)));
+        }
+    }
+
+    /**
+     * Pin the behaviour of the filter parser that the equality rewrite relies on
+     */
+    @Test
+    public void filterValueTest() throws ch.poole.osm.josmfilterparser.ParseException {
+        Condition c = condition("admin_level = 2");
+        assertTrue(c.eval(Type.RELATION, null, Collections.singletonMap("admin_level", "2")));
+        assertFalse(c.eval(Type.RELATION, null, Collections.singletonMap("admin_level", "02")));
+        assertFalse(c.eval(Type.RELATION, null, Collections.singletonMap("admin_level", "2.0")));
+        c = condition("name = \"Main Street\"");
+        assertTrue(c.eval(Type.WAY, null, Collections.singletonMap("name", "Main Street")));
+        assertFalse(c.eval(Type.WAY, null, Collections.singletonMap("name", "\"Main Street\"")));
+        c = condition("\"name:de\" = Rom");
+        assertTrue(c.eval(Type.NODE, null, Collections.singletonMap("name:de", "Rom")));
+        assertFalse(c.eval(Type.NODE, null, Collections.singletonMap("name:de", "rom")));
+    }
+}
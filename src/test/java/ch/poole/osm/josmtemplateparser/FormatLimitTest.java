@@ -0,0 +1,132 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for length bounded formatting
+ *
+ * @author Simon Poole
+ *
+ */
+public class FormatLimitTest {
+
+    private static final String[] TEMPLATES = { "Bus", "Bus {ref} - {name} ({operator})", "?{'{from} - {to}' | '{from}' | 'none'}",
+            "{ref} ?{ admin_level = 2 'NUTS 1' | 'Admin level {admin_level}'} {name}", "?{'{name} {ref}' | '{ref}'}", "{special:everything}" };
+
+    /**
+     * Bounded output should be the truncated unbounded output
+     */
+    @Test
+    public void truncateTest() throws ParseException {
+        Map<String, String> tags = new TreeMap<>();
+        tags.put("name", "Bahnhofstrasse");
+        tags.put("ref", "12");
+        tags.put("from", "Zurich HB");
+        tags.put("admin_level", "4");
+        TestMeta meta = new TestMeta() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Map<String, String> getTags() {
+                return tags;
+            }
+        };
+        for (String template : TEMPLATES) {
+            List<Formatter> formatters = JosmTemplateParser.parse(template);
+            CompiledTemplate compiled = CompiledTemplate.compile(formatters);
+            String full = Util.listFormat(formatters, Type.WAY, meta, tags);
+            for (int maxChars = 0; maxChars <= full.length() + 1; maxChars++) {
+                String expected = full.substring(0, Math.min(maxChars, full.length()));
+                assertEquals(template, expected, Util.listFormat(formatters, Type.WAY, meta, tags, maxChars));
+                assertEquals(template, expected, compiled.format(Type.WAY, meta, tags, maxChars));
+            }
+        }
+        StringBuilder builder = new StringBuilder("prefix ");
+        Util.listFormatTo(builder, JosmTemplateParser.parse("Bus {ref}"), Type.WAY, meta, tags, 5);
+        assertEquals("prefix Bus 1", builder.toString());
+    }
+
+    /**
+     * Formatters after the limit should not run and special:everything should stop adding tags
+     */
+    @Test
+    public void earlyStopTest() throws ParseException {
+        Map<String, String> tags = new TreeMap<String, String>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String get(Object key) {
+                if ("stop".equals(key)) {
+                    throw new IllegalStateException("tag after the limit was read");
+                }
+                return super.get(key);
+            }
+        };
+        for (int i = 0; i < 1000; i++) {
+            tags.put("key" + i, "value" + i);
+        }
+        TestMeta meta = new TestMeta() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Map<String, String> getTags() {
+                return tags;
+            }
+
+            @Override
+            public List<Serializable> getMatchingElements(@NotNull Condition c) {
+                throw new IllegalStateException("search after the limit was run");
+            }
+        };
+        List<Formatter> formatters = JosmTemplateParser.parse("{special:everything}{stop}?{ key1 '{stop}' | ''}!{parent type=route '{name}'}");
+        assertEquals("key0=value0\nkey1=v", Util.listFormat(formatters, Type.WAY, meta, tags, 18));
+        StringBuilder builder = new StringBuilder();
+        formatters.get(0).formatTo(builder, Type.WAY, meta, tags, 18);
+        assertEquals(2, builder.toString().split("\n").length);
+        assertEquals("key0=value0\nkey1=v", CompiledTemplate.compile(formatters).format(Type.WAY, meta, new HashMap<>(tags), 18));
+
+        formatters = JosmTemplateParser.parse("?{ key1 = value1 '{key0} {key1}{stop}' | key1 = x 'a' | key1 = y 'b' | 'c'}");
+        List<Formatter> dispatch = EqualityDispatch.apply(formatters, null);
+        assertTrue(dispatch.get(0) instanceof EqualityDispatch);
+        builder.setLength(0);
+        dispatch.get(0).formatTo(builder, Type.WAY, meta, tags, 8);
+        assertEquals("value0 value1", builder.toString());
+        assertEquals("value0 v", CompiledTemplate.compile(formatters).format(Type.WAY, meta, tags, 8));
+    }
+
+    /**
+     * A negative maximum length is rejected before any output is produced
+     */
+    @Test
+    public void negativeLimitTest() throws ParseException {
+        List<Formatter> formatters = JosmTemplateParser.parse("{name}");
+        Map<String, String> tags = new HashMap<>();
+        tags.put("name", "Bahnhofstrasse");
+        try {
+            Util.listFormat(formatters, Type.WAY, null, tags, -1);
+            fail("listFormat should throw an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            CompiledTemplate.compile(formatters).format(Type.WAY, null, tags, -1);
+            fail("format should throw an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Assertions comparing a Formatter with the parsed template it was created from
+ *
+ * @author Simon Poole
+ *
+ */
+final class FormatterAssert {
+
+    private static final String[] KEYS = { "name", "ref", "admin_level", "from", "to" };
+
+    /**
+     * Private constructor
+     */
+    private FormatterAssert() {
+        // nothing
+    }
+
+    /**
+     * Assert that a Formatter produces the same output as the parsed template for all combinations of the tags name,
+     * ref, admin_level (with value 2), from and to, and for null tags
+     *
+     * @param template the template, used as message
+     * @param formatters the parsed template
+     * @param actual the Formatter to check
+     * @param meta the Meta object to use or null
+     */
+    static void assertEquivalent(@NotNull String template, @NotNull List<Formatter> formatters, @NotNull Formatter actual, @Nullable Meta meta) {
+        for (int mask = 0; mask < 1 << KEYS.length; mask++) {
+            Map<String, String> tags = new HashMap<>();
+            for (int i = 0; i < KEYS.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    tags.put(KEYS[i], i == 2 ? "2" : KEYS[i]);
+                }
+            }
+            assertEquals(template, Util.listFormat(formatters, Type.WAY, meta, tags), actual.format(Type.WAY, meta, tags));
+        }
+        assertEquals(template, Util.listFormat(formatters, Type.WAY, meta, null), actual.format(Type.WAY, meta, null));
+    }
+}
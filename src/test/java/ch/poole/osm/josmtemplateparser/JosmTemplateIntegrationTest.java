@@ -6,6 +6,7 @@ import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.Serializable;
+import java.io.StringReader;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -82,6 +83,81 @@ public class JosmTemplateIntegrationTest {
         assertEquals("fail", f.get(0).format(Type.NODE, null, tags));
     }
 
+    /**
+     * Nested conditionals
+     */
+    @Test
+    public void nestedConditionalsTest() {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("name", "Bahnhofstrasse");
+        tags.put("admin_level", "4");
+
+        List<Formatter> f = parse("?{ admin_level = 2 'NUTS 1' | '?{\\'Street {name}\\' | \\'none\\'}' }");
+        assertEquals(1, f.size());
+        assertEquals("Street Bahnhofstrasse", f.get(0).format(Type.NODE, null, tags));
+        tags.remove("name");
+        assertEquals("none", f.get(0).format(Type.NODE, null, tags));
+        tags.put("admin_level", "2");
+        assertEquals("NUTS 1", f.get(0).format(Type.NODE, null, tags));
+    }
+
+    /**
+     * Conditionals nested several levels deep, each level is unescaped once and parsed by the parser of its level
+     */
+    @Test
+    public void deeplyNestedTest() {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("name", "Bahnhofstrasse");
+        String template = "{name} ?{ ref 'Ref {ref}' | 'no ref'}";
+        for (int depth = 1; depth <= 6; depth++) {
+            template = "?{ admin_level = 2 'NUTS 1' | '" + template.replace("\\", "\\\\").replace("'", "\\'") + "' }";
+            List<Formatter> f = parse(template);
+            assertEquals(1, f.size());
+            assertEquals(template, "Bahnhofstrasse no ref", f.get(0).format(Type.NODE, null, tags));
+        }
+    }
+
+    /**
+     * Parsing a template with 100'000 elements shouldn't overflow the stack
+     */
+    @Test
+    public void largeTemplateTest() {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("ref", "1");
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            template.append("{ref}-");
+        }
+        List<Formatter> f = parse(template.toString());
+        assertEquals(100000, f.size());
+        String result = Util.listFormat(f, Type.NODE, null, tags);
+        assertEquals(100000, result.length());
+        assertEquals("1-1-", result.substring(0, 4));
+    }
+
+    /**
+     * Test the CharSequence and Reader entry points with non-ASCII input
+     */
+    @Test
+    public void charSequenceAndReaderTest() throws ParseException {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("stra\u00dfe", "Bahnhofstra\u00dfe");
+        tags.put("name", "\u4e1c\u4eac");
+
+        String template = "\u00c4 {stra\u00dfe} ?{'\u00f6 {name}' | '\u00fc'}";
+        List<Formatter> f = JosmTemplateParser.parse(template);
+        assertEquals("\u00c4 Bahnhofstra\u00dfe \u00f6 \u4e1c\u4eac", Util.listFormat(f, Type.NODE, null, tags));
+
+        f = JosmTemplateParser.parse(new StringBuilder(template));
+        assertEquals("\u00c4 Bahnhofstra\u00dfe \u00f6 \u4e1c\u4eac", Util.listFormat(f, Type.NODE, null, tags));
+
+        f = JosmTemplateParser.parse(new StringReader(template));
+        assertEquals("\u00c4 Bahnhofstra\u00dfe \u00f6 \u4e1c\u4eac", Util.listFormat(f, Type.NODE, null, tags));
+
+        tags.remove("name");
+        assertEquals("\u00c4 Bahnhofstra\u00dfe \u00fc", Util.listFormat(f, Type.NODE, null, tags));
+    }
+
     @Test
     public void searchTest() {
 
@@ -115,6 +191,40 @@ public class JosmTemplateIntegrationTest {
         assertEquals("grrr", f.get(0).format(Type.NODE, meta, null));
     }
 
+    /**
+     * FirstMatchMeta should be used instead of building the list of matches
+     */
+    @Test
+    public void firstMatchSearchTest() {
+        class FirstMatchTestMeta extends TestMeta implements FirstMatchMeta {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Map<String, String> getTags() {
+                Map<String, String> tags = new HashMap<>();
+                tags.put("name", "Route 1");
+                return tags;
+            }
+
+            @Override
+            public List<Serializable> getMatchingElements(@NotNull Condition c) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Serializable getFirstMatchingElement(@NotNull Condition condition) {
+                return this;
+            }
+
+            @Override
+            public @NotNull Meta wrap(Serializable o) {
+                return (Meta) o;
+            }
+        }
+        List<Formatter> f = parse("!{parent type=route '{name}'}");
+        assertEquals("Route 1", f.get(0).format(Type.NODE, new FirstMatchTestMeta(), null));
+    }
+
     @Test
     public void specialIdTest() {
         TestMeta meta = new TestMeta();
@@ -162,6 +272,39 @@ public class JosmTemplateIntegrationTest {
         assertEquals("grrr2", f.get(0).format(Type.NODE, meta, null));
     }
     
+    /**
+     * Specials are resolved ignoring case, applications can add their own and unknown ones are tags
+     */
+    @Test
+    public void specialHandlerTest() {
+        TestMeta meta = new TestMeta();
+        meta.id = 123L;
+        meta.version = 7L;
+        Map<String, String> tags = new HashMap<>();
+        tags.put("special:unknown", "value");
+
+        List<Formatter> f = parse("{SPECIAL:ID}");
+        assertEquals("123", f.get(0).format(Type.NODE, meta, tags));
+        assertEquals("{SPECIAL:ID}", f.get(0).toString());
+        assertEquals("value", Util.listFormat(parse("{special:unknown}"), Type.NODE, meta, tags));
+        assertEquals("special:unknown value", Util.listFormat(parse("special:unknown {special:unknown}"), Type.NODE, meta, tags));
+
+        // the registry is global, use a key that nothing else registers
+        SpecialHandlers.register("special:specialHandlerTestVersion", (builder, type, m, t) -> {
+            if (m != null) {
+                builder.append(m.getVersion());
+            }
+        });
+        try {
+            f = parse("{special:id} v{special:specialHandlerTestVersion}");
+            assertEquals("123 v7", Util.listFormat(f, Type.NODE, meta, tags));
+        } finally {
+            SpecialHandlers.unregister("special:specialHandlerTestVersion");
+        }
+        assertEquals("123 v7", Util.listFormat(f, Type.NODE, meta, tags));
+        assertEquals("", Util.listFormat(parse("{special:specialHandlerTestVersion}"), Type.NODE, meta, tags));
+    }
+
     @Test
     public void displayValueTest() {
         Map<String, String> tags = new HashMap<>();
@@ -185,6 +328,30 @@ public class JosmTemplateIntegrationTest {
         assertEquals("grrr", f.get(0).format(Type.NODE, meta, tags));
     }
 
+    /**
+     * Test appending to a caller supplied buffer
+     */
+    @Test
+    public void formatToTest() {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("from", "a");
+        tags.put("to", "c");
+        tags.put("ref", "1");
+        TestMeta meta = new TestMeta();
+        meta.id = 42L;
+
+        List<Formatter> f = parse("Bus {ref} ?{'{from} - {via} - {to}' | '{from} - {to}' | '{from}'} {special:id}");
+        StringBuilder builder = new StringBuilder("prefix ");
+        Util.listFormatTo(builder, f, Type.NODE, meta, tags);
+        assertEquals("prefix Bus 1 a - c 42", builder.toString());
+        assertEquals("Bus 1 a - c 42", Util.listFormat(f, Type.NODE, meta, tags));
+
+        builder.setLength(0);
+        tags.remove("to");
+        Util.listFormatTo(builder, f, Type.NODE, meta, tags);
+        assertEquals("Bus 1 a 42", builder.toString());
+    }
+
     /**
      * Parse a filter string and return the Condition object
      * 
@@ -0,0 +1,101 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for LocalNameHandler
+ *
+ * @author Simon Poole
+ *
+ */
+public class LocalNameHandlerTest {
+
+    /**
+     * Create a test element
+     *
+     * @param tags the tags of the element
+     * @return a TestMeta
+     */
+    private static TestMeta element(Map<String, String> tags) {
+        return new TestMeta() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Map<String, String> getTags() {
+                return tags;
+            }
+        };
+    }
+
+    /**
+     * Check the key chain
+     */
+    @Test
+    public void keysTest() {
+        assertEquals(Arrays.asList("name:de-CH", "name:de", "name:en", "name", "int_name"),
+                new LocalNameHandler(Arrays.asList("de-CH", "en", "de")).getKeys());
+        assertEquals(Arrays.asList("name:zh-Hant-TW", "name:zh-Hant", "name:zh", "name", "int_name"),
+                LocalNameHandler.of(Locale.forLanguageTag("zh-Hant-TW")).getKeys());
+        assertEquals(Arrays.asList("name:de-CH", "name:de", "name", "int_name"), new LocalNameHandler(Arrays.asList("de_CH")).getKeys());
+        assertEquals(Arrays.asList("name", "int_name"), new LocalNameHandler(Arrays.asList("")).getKeys());
+    }
+
+    /**
+     * The first key with a value is used
+     */
+    @Test
+    public void resolveTest() {
+        LocalNameHandler handler = LocalNameHandler.of(Locale.forLanguageTag("de-CH"));
+        Map<String, String> tags = new HashMap<>();
+        tags.put("int_name", "Zurich");
+        StringBuilder builder = new StringBuilder();
+        handler.append(builder, Type.NODE, element(tags), null);
+        assertEquals("Zurich", builder.toString());
+        tags.put("name", "Z\u00fcrich");
+        tags.put("name:de", "Z\u00fcrich (de)");
+        builder.setLength(0);
+        handler.append(builder, Type.NODE, element(tags), null);
+        assertEquals("Z\u00fcrich (de)", builder.toString());
+        builder.setLength(0);
+        handler.append(builder, Type.NODE, null, tags);
+        assertEquals("", builder.toString());
+    }
+
+    /**
+     * Engines for different languages can compile the same template
+     */
+    @Test
+    public void engineTest() throws ParseException {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("name", "Roma");
+        tags.put("name:de", "Rom");
+        tags.put("name:fr", "Rome");
+        TestMeta meta = element(tags);
+        List<Formatter> formatters = JosmTemplateParser.parse("City: {special:localName}");
+
+        TemplateEngine german = new TemplateEngine();
+        german.registerSpecialHandler("special:localName", LocalNameHandler.of(Locale.GERMAN));
+        TemplateEngine french = new TemplateEngine();
+        french.registerSpecialHandler("special:localname", LocalNameHandler.of(Locale.FRENCH));
+
+        assertEquals("City: Rom", german.compile(formatters).format(Type.NODE, meta, tags));
+        assertEquals("City: Rome", french.compile(formatters).format(Type.NODE, meta, tags));
+        assertEquals("City: Roma", new TemplateEngine().compile(formatters).format(Type.NODE, meta, tags));
+
+        ReferencedKeys keys = german.compile(formatters).referencedKeys();
+        assertEquals(new HashSet<>(Arrays.asList("name:de", "name", "int_name")), keys.getKeys());
+        assertFalse(keys.needsAllTags());
+    }
+}
@@ -0,0 +1,86 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.invoke.MethodHandle;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for MethodHandleTemplate
+ *
+ * @author Simon Poole
+ *
+ */
+public class MethodHandleTemplateTest {
+
+    private static final String[] TEMPLATES = { "?{'' | ''}", "Bus", "Bus {ref} - {name} ({operator})", "{%name} {special:id}", "?{'{name}' | ''}",
+            "?{'Bus' | '{name}' | '{ref}'}", "?{'{ref} ?{\\'{name}\\'|\\'\\'}' | 'none'}",
+            "{ref} ?{ admin_level = 2 'NUTS 1' | '' | 'Admin level {admin_level}'} {name}",
+            "?{ admin_level = 2 '?{\\'{name}\\' | \\'{ref}\\'}' | ref '{ref}' | 'none'}", "?{'{from} - {to}' | '{from}' | 'none'}" };
+
+    /**
+     * Compiled templates should produce the same output as the parsed ones for all combinations of tags
+     */
+    @Test
+    public void equivalenceTest() throws ParseException {
+        TestMeta meta = new TestMeta();
+        meta.id = 42L;
+        for (String template : TEMPLATES) {
+            List<Formatter> formatters = JosmTemplateParser.parse(template);
+            MethodHandleTemplate compiled = MethodHandleTemplate.compile(formatters);
+            FormatterAssert.assertEquivalent(template, formatters, compiled, meta);
+            FormatterAssert.assertEquivalent(template, formatters, compiled, null);
+        }
+    }
+
+    /**
+     * A template with 100'000 elements shouldn't overflow the stack
+     */
+    @Test
+    public void largeTemplateTest() throws ParseException {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("ref", "1");
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            template.append("{ref}-");
+        }
+        String result = MethodHandleTemplate.compile(JosmTemplateParser.parse(template.toString())).format(Type.NODE, null, tags);
+        assertEquals(100000, result.length());
+        assertEquals("1-1-", result.substring(0, 4));
+    }
+
+    private static final MethodHandle LABEL = label();
+
+    /**
+     * Get the handle for the static field
+     *
+     * @return a MethodHandle
+     */
+    private static MethodHandle label() {
+        try {
+            return MethodHandleTemplate.compile(JosmTemplateParser.parse("{ref} ?{'{name}' | 'none'}")).getHandle();
+        } catch (ParseException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The root handle can be held in a static final field and called directly
+     */
+    @Test
+    public void constantHandleTest() throws Throwable {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("ref", "1");
+        Meta meta = null;
+        StringBuilder builder = new StringBuilder();
+        LABEL.invokeExact(builder, Type.NODE, meta, tags);
+        assertEquals("1 none", builder.toString());
+    }
+}
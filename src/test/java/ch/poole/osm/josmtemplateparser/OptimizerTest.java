@@ -0,0 +1,61 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for Optimizer
+ *
+ * @author Simon Poole
+ *
+ */
+public class OptimizerTest {
+
+    private static final String[] TEMPLATES = { "Bus", "Bus {ref} - {name} ({operator})", "?{'' | '{name}'}", "?{'{name}' | ''}",
+            "?{'Bus' | '{name}' | '{ref}'}", "?{'{name}' | 'Bus' | '{ref}'}", "?{'{ref} ?{\\'{name}\\'|\\'\\'}' | 'none'}",
+            "?{'a ?{\\'\\'|\\'\\'}' | '{ref}'}",
+            "{ref} ?{ admin_level = 2 'NUTS 1' | '' | 'Admin level {admin_level}'} {name}", "!{parent type=route 'Route {name}'}",
+            "?{'{from} - {to}' | '{from}' | 'none'}", "x?{''|''}y" };
+
+    /**
+     * Optimized templates should produce the same output as the parsed ones for all combinations of tags
+     */
+    @Test
+    public void equivalenceTest() throws ParseException {
+        TestMeta meta = new TestMeta();
+        for (String template : TEMPLATES) {
+            List<Formatter> formatters = JosmTemplateParser.parse(template);
+            List<Formatter> optimized = Optimizer.optimize(formatters);
+            FormatterAssert.assertEquivalent(template, formatters, (type, m, tags) -> Util.listFormat(optimized, type, m, tags), meta);
+            FormatterAssert.assertEquivalent(template, formatters, CompiledTemplate.compile(formatters), meta);
+        }
+    }
+
+    /**
+     * Check that literals are merged and dead branches removed
+     */
+    @Test
+    public void structureTest() throws ParseException {
+        List<Formatter> optimized = Optimizer.optimize(JosmTemplateParser.parse("Bus {ref} - {name} ({operator})"));
+        assertEquals(7, optimized.size());
+        assertTrue(optimized.get(0) instanceof Literal);
+        assertEquals("Bus ", ((Literal) optimized.get(0)).getValue());
+        assertEquals(" - ", ((Literal) optimized.get(2)).getValue());
+
+        optimized = Optimizer.optimize(JosmTemplateParser.parse("?{'' | '{name}' | 'Bus' | '{ref}'}"));
+        assertEquals(1, optimized.size());
+        List<Conditional.ConditionalValue> branches = ((Conditional) optimized.get(0)).getConditions();
+        assertEquals(2, branches.size());
+        assertEquals("Bus", ((Literal) branches.get(1).values.get(0)).getValue());
+
+        assertEquals(new ArrayList<>(), Optimizer.optimize(JosmTemplateParser.parse("?{'' | ''}")));
+        optimized = Optimizer.optimize(JosmTemplateParser.parse("x?{''|''}y"));
+        assertEquals(1, optimized.size());
+        assertEquals("xy", ((Literal) optimized.get(0)).getValue());
+    }
+}
@@ -0,0 +1,139 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for ReferencedKeys
+ *
+ * @author Simon Poole
+ *
+ */
+public class ReferencedKeysTest {
+
+    /**
+     * Keys from tags, implicit conditionals and key = value conditions
+     */
+    @Test
+    public void keysTest() throws ParseException {
+        ReferencedKeys keys = ReferencedKeys
+                .of(JosmTemplateParser.parse("{ref} ?{ admin_level = 2 'NUTS 1' | '{from} - {to}' | 'Admin level {admin_level}'} {special:localName}"));
+        assertEquals(new HashSet<>(Arrays.asList("ref", "admin_level", "from", "to", "name")), keys.getKeys());
+        assertFalse(keys.needsAllTags());
+        assertFalse(keys.usesSearch());
+        Map<String, String> tags = new HashMap<>();
+        assertFalse(keys.hasReferencedTags(tags));
+        assertFalse(keys.hasReferencedTags(null));
+        tags.put("highway", "residential");
+        assertFalse(keys.hasReferencedTags(tags));
+        tags.put("to", "b");
+        assertTrue(keys.hasReferencedTags(tags));
+    }
+
+    /**
+     * Templates that need more than the referenced keys
+     */
+    @Test
+    public void wideTest() throws ParseException {
+        ReferencedKeys keys = ReferencedKeys.of(JosmTemplateParser.parse("{name} {special:everything}"));
+        assertTrue(keys.needsAllTags());
+        assertTrue(keys.hasReferencedTags(new HashMap<>()));
+        keys = ReferencedKeys.of(JosmTemplateParser.parse("{name} ?{ highway 'road' | 'other'}"));
+        assertTrue(keys.needsAllTags());
+        assertTrue(keys.getKeys().contains("name"));
+        keys = ReferencedKeys.of(JosmTemplateParser.parse("!{parent type=route '{name}'}"));
+        assertTrue(keys.usesSearch());
+        assertFalse(keys.needsAllTags());
+        assertTrue(keys.hasReferencedTags(new HashMap<>()));
+    }
+
+    /**
+     * Change detection
+     */
+    @Test
+    public void affectedTest() throws ParseException {
+        CompiledTemplate template = CompiledTemplate.compile(JosmTemplateParser.parse("{ref} ?{ admin_level = 2 'NUTS 1' | '{from} - {to}'}"));
+        assertTrue(template.isAffectedBy(new HashSet<>(Arrays.asList("highway", "to"))));
+        assertFalse(template.isAffectedBy(new HashSet<>(Arrays.asList("highway", "surface"))));
+        assertFalse(template.isAffectedBy(new HashSet<>()));
+        Map<String, String> oldTags = new HashMap<>();
+        oldTags.put("ref", "1");
+        oldTags.put("highway", "primary");
+        Map<String, String> newTags = new HashMap<>(oldTags);
+        newTags.put("highway", "secondary");
+        assertFalse(template.isAffectedBy(oldTags, newTags));
+        newTags.put("admin_level", "2");
+        assertTrue(template.isAffectedBy(oldTags, newTags));
+        assertTrue(template.isAffectedBy(oldTags, null));
+        assertFalse(template.isAffectedBy(null, null));
+
+        template = CompiledTemplate.compile(JosmTemplateParser.parse("{special:everything}"));
+        assertTrue(template.isAffectedBy(new HashSet<>(Arrays.asList("highway"))));
+        assertFalse(template.isAffectedBy(oldTags, new HashMap<>(oldTags)));
+        assertTrue(template.isAffectedBy(oldTags, newTags));
+        template = CompiledTemplate.compile(JosmTemplateParser.parse("!{parent type=route '{name}'}"));
+        assertTrue(template.isAffectedBy(new HashSet<>(Arrays.asList("highway"))));
+    }
+
+    /**
+     * Get the keys with different values in two versions of the tags
+     *
+     * @param oldTags the old tags or null
+     * @param newTags the new tags or null
+     * @return the changed keys
+     */
+    private static Set<String> changedKeys(Map<String, String> oldTags, Map<String, String> newTags) {
+        Map<String, String> before = oldTags != null ? oldTags : new HashMap<>();
+        Map<String, String> after = newTags != null ? newTags : new HashMap<>();
+        Set<String> result = new HashSet<>(before.keySet());
+        result.addAll(after.keySet());
+        result.removeIf(key -> before.get(key) != null && before.get(key).equals(after.get(key)));
+        return result;
+    }
+
+    /**
+     * Both forms of isAffectedBy agree for the same edit
+     */
+    @Test
+    public void affectedAgreeTest() throws ParseException {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("ref", "1");
+        tags.put("highway", "primary");
+        Map<String, String> changedValue = new HashMap<>(tags);
+        changedValue.put("highway", "secondary");
+        Map<String, String> added = new HashMap<>(tags);
+        added.put("type", "route");
+        Map<String, String> removed = new HashMap<>(tags);
+        removed.remove("ref");
+        List<Map<String, String>> versions = Arrays.asList(null, new HashMap<>(), tags, new HashMap<>(tags), changedValue, added, removed);
+        for (String template : new String[] { "{ref}", "{special:everything}", "!{parent type=route '{name}'}", "{ref} !{parent type=route '{name}'}" }) {
+            ReferencedKeys keys = ReferencedKeys.of(JosmTemplateParser.parse(template));
+            for (Map<String, String> oldTags : versions) {
+                for (Map<String, String> newTags : versions) {
+                    assertEquals(template + " " + oldTags + " " + newTags, keys.isAffectedBy(changedKeys(oldTags, newTags)),
+                            keys.isAffectedBy(oldTags, newTags));
+                }
+            }
+        }
+    }
+
+    /**
+     * CompiledTemplate exposes the same analysis
+     */
+    @Test
+    public void compiledTest() throws ParseException {
+        CompiledTemplate template = CompiledTemplate.compile(JosmTemplateParser.parse("{ref} {name}"));
+        assertEquals(new HashSet<>(Arrays.asList("ref", "name")), template.referencedKeys().getKeys());
+        assertTrue(template.referencedKeys() == template.referencedKeys());
+    }
+}
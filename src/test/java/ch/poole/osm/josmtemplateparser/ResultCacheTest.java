@@ -0,0 +1,111 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for ResultCache
+ *
+ * @author Simon Poole
+ *
+ */
+public class ResultCacheTest {
+
+    /**
+     * Create a TestMeta with a version
+     *
+     * @param id the id
+     * @param version the version
+     * @return a TestMeta
+     */
+    private static TestMeta meta(long id, long version) {
+        TestMeta meta = new TestMeta();
+        meta.id = id;
+        meta.version = version;
+        return meta;
+    }
+
+    /**
+     * Output should be cached per element version
+     */
+    @Test
+    public void versionTest() throws ParseException {
+        ResultCache cache = new ResultCache(100);
+        Formatter template = cache.wrap(CompiledTemplate.compile(JosmTemplateParser.parse("{ref} {name}")));
+        Map<String, String> tags = new HashMap<>();
+        tags.put("ref", "1");
+        tags.put("name", "Main street");
+        assertEquals("1 Main street", template.format(Type.WAY, meta(1, 1), tags));
+        tags.put("name", "High street");
+        assertEquals("1 Main street", template.format(Type.WAY, meta(1, 1), tags)); // cached
+        assertEquals("1 High street", template.format(Type.WAY, meta(1, 2), tags));
+        assertEquals("1 High street", template.format(Type.NODE, meta(1, 1), tags));
+        assertEquals("1 High street", template.format(Type.WAY, null, tags)); // never cached
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        cache.invalidate(Type.WAY, 1);
+        assertEquals(1, cache.size());
+        assertEquals("1 High street", template.format(Type.WAY, meta(1, 1), tags));
+        StringBuilder builder = new StringBuilder("x");
+        template.formatFrom(builder, Type.WAY, meta(1, 1), new MapTagSource(new KeyDictionary(), tags));
+        assertEquals("x1 High street", builder.toString());
+    }
+
+    /**
+     * Templates with search and special:everything are only cached on request
+     */
+    @Test
+    public void bypassTest() throws ParseException {
+        ResultCache cache = new ResultCache();
+        Formatter everything = CompiledTemplate.compile(JosmTemplateParser.parse("{special:everything}"));
+        assertTrue(cache.wrap(everything) == everything);
+        assertTrue(cache.wrap(everything, true) != everything);
+        Formatter search = JosmTemplateParser.parse("!{parent type=route '{name}'}").get(0);
+        assertTrue(cache.wrap(search) == search);
+        Formatter tag = JosmTemplateParser.parse("{name}").get(0);
+        assertTrue(cache.wrap(tag) != tag);
+    }
+
+    /**
+     * Entries should expire
+     */
+    @Test
+    public void expiryTest() throws ParseException {
+        AtomicLong time = new AtomicLong();
+        ResultCache cache = new ResultCache(100, 10, time::get);
+        Formatter template = cache.wrap(CompiledTemplate.compile(JosmTemplateParser.parse("{name}")));
+        Map<String, String> tags = new HashMap<>();
+        tags.put("name", "Main street");
+        assertEquals("Main street", template.format(Type.WAY, meta(1, 1), tags));
+        tags.put("name", "High street");
+        time.set(9);
+        assertEquals("Main street", template.format(Type.WAY, meta(1, 1), tags));
+        time.set(10);
+        assertEquals("High street", template.format(Type.WAY, meta(1, 1), tags));
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Size should stay bounded
+     */
+    @Test
+    public void evictionTest() throws ParseException {
+        ResultCache cache = new ResultCache(50);
+        Formatter template = cache.wrap(JosmTemplateParser.parse("{name}").get(0));
+        Map<String, String> tags = new HashMap<>();
+        tags.put("name", "Main street");
+        for (int i = 0; i < 1000; i++) {
+            template.format(Type.NODE, meta(i, 1), tags);
+        }
+        assertTrue(cache.size() <= 50);
+    }
+}
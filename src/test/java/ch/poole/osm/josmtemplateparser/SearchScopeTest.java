@@ -0,0 +1,188 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for SearchScope and ParentRelationIndex
+ *
+ * @author Simon Poole
+ *
+ */
+public class SearchScopeTest {
+
+    /**
+     * Meta that counts searches and returns a fixed parent
+     */
+    private static class CountingMeta extends TestMeta {
+        private static final long serialVersionUID = 1L;
+
+        final Map<String, String> tags = new HashMap<>();
+        int                       searches;
+        int                       wraps;
+
+        @Override
+        public Type getType() {
+            return Type.NODE;
+        }
+
+        @Override
+        public Map<String, String> getTags() {
+            return tags;
+        }
+
+        @Override
+        public List<Serializable> getMatchingElements(@NotNull Condition c) {
+            searches++;
+            return Arrays.asList(this);
+        }
+
+        @Override
+        public @NotNull Meta wrap(Serializable o) {
+            wraps++;
+            return (Meta) o;
+        }
+    }
+
+    /**
+     * Search results should be shared while a scope is open
+     */
+    @Test
+    public void scopeTest() throws ParseException {
+        List<Formatter> template = JosmTemplateParser.parse("!{parent type=route '{name}'} !{parent type=route '{ref}'}");
+        CountingMeta meta = new CountingMeta();
+        meta.tags.put("name", "Route 1");
+        meta.tags.put("ref", "1");
+        assertEquals("Route 1 1", Util.listFormat(template, Type.NODE, meta, null));
+        assertEquals(2, meta.searches);
+        try (SearchScope scope = SearchScope.open()) {
+            assertEquals("Route 1 1", Util.listFormat(template, Type.NODE, meta, null));
+            assertEquals("Route 1 1", Util.listFormat(template, Type.NODE, meta, null));
+            assertEquals(3, meta.searches);
+            assertEquals(3, meta.wraps);
+            assertEquals(1, scope.size());
+            try (SearchScope inner = SearchScope.open()) {
+                assertEquals("Route 1 1", Util.listFormat(template, Type.NODE, meta, null));
+                assertEquals(4, meta.searches);
+            }
+            assertTrue(SearchScope.current() == scope);
+        }
+        assertNull(SearchScope.current());
+    }
+
+    /**
+     * Searches of the form parent key=value should use the index
+     */
+    @Test
+    public void indexTest() throws ParseException {
+        CountingMeta route = new CountingMeta();
+        route.tags.put("type", "route");
+        route.tags.put("name", "Route 1");
+        CountingMeta multipolygon = new CountingMeta();
+        multipolygon.tags.put("type", "multipolygon");
+        multipolygon.tags.put("name", "Forest");
+        ParentRelationIndex index = new ParentRelationIndex();
+        index.add(Type.NODE, 1, multipolygon, multipolygon.tags);
+        index.add(Type.NODE, 1, route, route.tags);
+        assertTrue(index.handles("parent type=route"));
+        assertFalse(index.handles("child type=route"));
+
+        CountingMeta member = new CountingMeta();
+        member.id = 1;
+        CountingMeta other = new CountingMeta();
+        other.id = 2;
+        List<Formatter> template = JosmTemplateParser.parse("!{parent type=route '{name}'}");
+        try (SearchScope scope = SearchScope.open(index)) {
+            assertEquals("Route 1", Util.listFormat(template, Type.NODE, member, null));
+            assertEquals("", Util.listFormat(template, Type.NODE, other, null));
+            template = JosmTemplateParser.parse("!{parent type=multipolygon '{name}'}");
+            assertEquals("Forest", Util.listFormat(template, Type.NODE, member, null));
+        }
+        assertEquals(0, member.searches);
+        assertEquals(0, other.searches);
+    }
+
+    /**
+     * Only exact key=value tests are answered by the index
+     */
+    @Test
+    public void indexSubsetTest() throws ParseException {
+        CountingMeta boundary = new CountingMeta();
+        boundary.tags.put("admin_level", "02");
+        boundary.tags.put("name", "a.b");
+        ParentRelationIndex index = new ParentRelationIndex();
+        index.add(Type.NODE, 1, boundary, boundary.tags);
+        // regular expression characters
+        assertFalse(index.handles("parent name=a.b"));
+        assertFalse(index.handles("parent name=^a"));
+        assertFalse(index.handles("parent name=a+"));
+        assertFalse(index.handles("parent name=http://a"));
+        assertFalse(index.handles("parent type=route | type=bus"));
+        // numeric values are compared as strings, as the parsed condition does
+        assertTrue(index.handles("parent admin_level=2"));
+        CountingMeta member = new CountingMeta();
+        member.id = 1;
+        assertNull(index.firstMatch("parent admin_level=2", member));
+        index.add(Type.NODE, 1, member, Collections.singletonMap("admin_level", "2"));
+        assertTrue(index.firstMatch("parent admin_level=2", member) == member);
+        assertTrue(index.firstMatch("parent admin_level=02", member) == boundary);
+        // not handled expressions fall back to the search
+        List<Formatter> template = JosmTemplateParser.parse("!{parent name=a.b '{name}'}");
+        try (SearchScope scope = SearchScope.open(index)) {
+            Util.listFormat(template, Type.NODE, member, null);
+        }
+        assertEquals(1, member.searches);
+    }
+
+    /**
+     * Tasks of formatAllParallel should use the scope and index of the calling thread
+     */
+    @Test
+    public void parallelTest() throws ParseException {
+        ParentRelationIndex index = new ParentRelationIndex();
+        List<CountingMeta> members = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            CountingMeta route = new CountingMeta();
+            route.tags.put("type", "route");
+            route.tags.put("name", "Route " + i);
+            index.add(Type.NODE, i, route, route.tags);
+            CountingMeta member = new CountingMeta();
+            member.id = i;
+            member.tags.put("name", "Stop " + i);
+            members.add(member);
+        }
+        Formatter template = CompiledTemplate.compile(JosmTemplateParser.parse("{name}: !{parent type=route '{name}'}"));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (SearchScope scope = SearchScope.open(index)) {
+            List<String> result = new TemplateEngine(pool, 1).formatAllParallel(template, members);
+            for (int i = 0; i < members.size(); i++) {
+                assertEquals("Stop " + i + ": Route " + i, result.get(i));
+                assertEquals(0, members.get(i).searches);
+            }
+            assertEquals(members.size(), scope.size());
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(index.handles("parent type=route"));
+        assertFalse(index.handles("parent type~route"));
+        assertFalse(index.handles("parent type~route")); // cached as unsupported
+    }
+}
@@ -0,0 +1,139 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for slot based tag access
+ *
+ * @author Simon Poole
+ *
+ */
+public class TagSourceTest {
+
+    private static final String[] TEMPLATES = { "Bus", "{name}", "{%name}", "{ref} {name}", "Bus {ref}: {name} ({operator})", "{special:id}",
+            "?{'{from} - {to}' | '{from}' | 'none'}", "{ref} ?{ admin_level = 2 'NUTS 1' | 'Admin level {admin_level}'} {name}" };
+
+    /**
+     * TagSource backed by an array indexed by slot, as a dictionary encoded store would provide
+     */
+    private static class ArrayTagSource implements TagSource {
+        final String[]      values;
+        final KeyDictionary dictionary;
+        int                 mapCalls = 0;
+
+        /**
+         * Construct a new instance
+         *
+         * @param dictionary the KeyDictionary
+         * @param tags the tags
+         */
+        ArrayTagSource(KeyDictionary dictionary, Map<String, String> tags) {
+            this.dictionary = dictionary;
+            values = new String[dictionary.size()];
+            for (Map.Entry<String, String> entry : tags.entrySet()) {
+                int slot = dictionary.getSlot(entry.getKey());
+                if (slot >= 0) {
+                    values[slot] = entry.getValue();
+                }
+            }
+        }
+
+        @Override
+        public String get(int slot) {
+            return slot < values.length ? values[slot] : null;
+        }
+
+        @Override
+        public Map<String, String> asMap() {
+            mapCalls++;
+            Map<String, String> result = new HashMap<>();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    result.put(dictionary.getKey(i), values[i]);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Slot based formatting should produce the same output as formatting with a Map
+     */
+    @Test
+    public void equivalenceTest() throws ParseException {
+        TestMeta meta = new TestMeta();
+        meta.id = 42L;
+        Map<String, String> tags = new HashMap<>();
+        tags.put("name", "Main street");
+        tags.put("ref", "1");
+        tags.put("from", "a");
+        tags.put("admin_level", "4");
+        KeyDictionary dictionary = new KeyDictionary();
+        for (String template : TEMPLATES) {
+            CompiledTemplate unbound = CompiledTemplate.compile(JosmTemplateParser.parse(template));
+            CompiledTemplate bound = CompiledTemplate.compile(JosmTemplateParser.parse(template), dictionary);
+            String expected = unbound.format(Type.WAY, meta, tags);
+            assertEquals(template, expected, bound.format(Type.WAY, meta, tags));
+            assertEquals(template, expected, bound.formatFrom(Type.WAY, meta, new ArrayTagSource(dictionary, tags)));
+            assertEquals(template, expected, bound.formatFrom(Type.WAY, meta, new MapTagSource(dictionary, tags)));
+            assertEquals(template, expected, unbound.formatFrom(Type.WAY, meta, new MapTagSource(dictionary, tags)));
+            assertEquals(template, unbound.format(Type.WAY, meta, null), bound.formatFrom(Type.WAY, meta, null));
+            assertEquals(template, unbound.toString(), bound.toString());
+        }
+    }
+
+    /**
+     * The complete tags are only retrieved for explicit conditions
+     */
+    @Test
+    public void asMapTest() throws ParseException {
+        KeyDictionary dictionary = new KeyDictionary();
+        Map<String, String> tags = new HashMap<>();
+        tags.put("from", "a");
+        CompiledTemplate template = CompiledTemplate.compile(JosmTemplateParser.parse("{ref} ?{'{from} - {to}' | '{from}' | 'none'}"), dictionary);
+        ArrayTagSource source = new ArrayTagSource(dictionary, tags);
+        assertEquals(" a", template.formatFrom(Type.NODE, null, source));
+        assertEquals(0, source.mapCalls);
+        template = CompiledTemplate.compile(JosmTemplateParser.parse("?{ from = a 'A' | 'B'}"), dictionary);
+        source = new ArrayTagSource(dictionary, tags);
+        assertEquals("A", template.formatFrom(Type.NODE, null, source));
+        assertEquals(1, source.mapCalls);
+    }
+
+    /**
+     * Slot assignment
+     */
+    @Test
+    public void dictionaryTest() {
+        KeyDictionary dictionary = new KeyDictionary(Arrays.asList("highway", "name"));
+        assertEquals(2, dictionary.size());
+        assertEquals(1, dictionary.slot("name"));
+        assertEquals(2, dictionary.slot("ref"));
+        assertEquals(2, dictionary.getSlot("ref"));
+        assertEquals(-1, dictionary.getSlot("operator"));
+        assertEquals("highway", dictionary.getKey(0));
+        assertNull(dictionary.getKey(3));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(3 + i, dictionary.slot("key" + i));
+        }
+        assertEquals("key99", dictionary.getKey(102));
+        assertEquals(103, dictionary.size());
+        try {
+            new KeyDictionary(Arrays.asList("a", "a"));
+            assertFalse(true);
+        } catch (IllegalArgumentException iaex) {
+            assertTrue(iaex.getMessage().contains("a"));
+        }
+    }
+}
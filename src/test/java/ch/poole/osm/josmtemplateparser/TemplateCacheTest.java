@@ -0,0 +1,103 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for the TemplateCache
+ *
+ * @author Simon Poole
+ *
+ */
+public class TemplateCacheTest {
+
+    /**
+     * Check hit and miss counting
+     */
+    @Test
+    public void hitMissTest() throws ParseException {
+        TemplateCache cache = new TemplateCache();
+        List<Formatter> f1 = cache.get("{name} {ref}");
+        List<Formatter> f2 = cache.get("{name} {ref}");
+        assertSame(f1, f2);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+        Map<String, String> tags = new HashMap<>();
+        tags.put("name", "Main street");
+        tags.put("ref", "1");
+        assertEquals("Main street 1", Util.listFormat(f1, Type.WAY, null, tags));
+        try {
+            f1.clear();
+            fail("list should be unmodifiable");
+        } catch (UnsupportedOperationException uoex) {
+            // expected
+        }
+    }
+
+    /**
+     * Check that templates that don't parse are not cached
+     */
+    @Test
+    public void parseErrorTest() {
+        TemplateCache cache = new TemplateCache();
+        try {
+            cache.get("{name");
+            fail("should have thrown an exception");
+        } catch (ParseException pex) {
+            // expected
+        }
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Check that the cache doesn't grow beyond its maximum size and that recently used entries are retained
+     */
+    @Test
+    public void evictionTest() throws ParseException {
+        TemplateCache cache = new TemplateCache(16);
+        List<Formatter> retained = cache.get("{name}");
+        for (int i = 0; i < 100; i++) {
+            cache.get("{name} " + i);
+            assertSame(retained, cache.get("{name}"));
+        }
+        assertTrue(cache.size() <= 16);
+    }
+
+    /**
+     * Concurrent access
+     */
+    @Test
+    public void concurrentTest() throws Exception {
+        TemplateCache cache = new TemplateCache(32);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final int n = i % 50;
+                results.add(executor.submit(() -> Util.listFormat(cache.get("{ref}" + n), Type.NODE, null, new HashMap<>())));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(Integer.toString(i % 50), results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(200, cache.getHits() + cache.getMisses());
+        assertTrue(cache.size() <= 32);
+    }
+}
@@ -0,0 +1,104 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for TemplateEngine
+ *
+ * @author Simon Poole
+ *
+ */
+public class TemplateEngineTest {
+
+    /**
+     * Create test elements
+     *
+     * @param count the number of elements
+     * @return a List of TestMeta
+     */
+    static List<TestMeta> elements(int count) {
+        List<TestMeta> elements = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, String> tags = new HashMap<>();
+            tags.put("ref", Integer.toString(i));
+            if (i % 2 == 0) {
+                tags.put("name", "Street " + i);
+            }
+            TestMeta meta = new TestMeta() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public Type getType() {
+                    return Type.WAY;
+                }
+
+                @Override
+                public Map<String, String> getTags() {
+                    return tags;
+                }
+            };
+            meta.id = i;
+            elements.add(meta);
+        }
+        return elements;
+    }
+
+    /**
+     * Expected output for the test template
+     *
+     * @param i element index
+     * @return the expected String
+     */
+    private static String expected(int i) {
+        return i + " " + (i % 2 == 0 ? "Street " + i : "unnamed") + " " + i;
+    }
+
+    /**
+     * Sequential formatting
+     */
+    @Test
+    public void sequentialTest() throws ParseException {
+        CompiledTemplate template = CompiledTemplate.compile(JosmTemplateParser.parse("{ref} ?{'{name}' | 'unnamed'} {special:id}"));
+        List<String> result = new TemplateEngine().formatAll(template, elements(100));
+        assertEquals(100, result.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(expected(i), result.get(i));
+        }
+    }
+
+    /**
+     * Parallel formatting must preserve order
+     */
+    @Test
+    public void parallelTest() throws ParseException {
+        CompiledTemplate template = CompiledTemplate.compile(JosmTemplateParser.parse("{ref} ?{'{name}' | 'unnamed'} {special:id}"));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            TemplateEngine engine = new TemplateEngine(pool, 16);
+            List<String> result = engine.formatAllParallel(template, elements(10000));
+            assertEquals(10000, result.size());
+            for (int i = 0; i < result.size(); i++) {
+                assertEquals(expected(i), result.get(i));
+            }
+            // not random access and caller supplied buffers
+            result = engine.formatAllParallel(template, new LinkedList<>(elements(1000)), ThreadLocal.withInitial(() -> new StringBuilder(64)));
+            for (int i = 0; i < result.size(); i++) {
+                assertEquals(expected(i), result.get(i));
+            }
+            assertEquals(0, engine.formatAllParallel(template, new ArrayList<TestMeta>()).size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for structural equality and TemplateInterner
+ *
+ * @author Simon Poole
+ *
+ */
+public class TemplateInternerTest {
+
+    /**
+     * Parsing the same template twice should produce equal formatters
+     */
+    @Test
+    public void equalsTest() throws ParseException {
+        String[] templates = { "Bus {ref}: {name}", "{%name}", "{special:id}", "?{ admin_level = 2 'NUTS 1' | 'Admin level {admin_level}'}",
+                "?{'{from} - {to}' | '{from}'}", "!{parent type=route '{name}'}" };
+        for (String template : templates) {
+            List<Formatter> a = JosmTemplateParser.parse(template);
+            List<Formatter> b = JosmTemplateParser.parse(template);
+            assertEquals(template, a, b);
+            assertEquals(template, a.hashCode(), b.hashCode());
+        }
+        assertFalse(new Tag("name", false).equals(new Tag("name", true)));
+        assertFalse(new Tag("name", false).equals(new Literal("name")));
+        assertFalse(JosmTemplateParser.parse("?{ admin_level = 2 'a' | 'b'}").equals(JosmTemplateParser.parse("?{ admin_level = 4 'a' | 'b'}")));
+        assertFalse(JosmTemplateParser.parse("!{parent type=route '{name}'}").equals(JosmTemplateParser.parse("!{parent type=route '{ref}'}")));
+    }
+
+    /**
+     * Identical subtrees should be shared
+     */
+    @Test
+    public void internTest() throws ParseException {
+        TemplateInterner interner = new TemplateInterner();
+        List<Formatter> a = interner.intern(JosmTemplateParser.parse("{ref} ?{ admin_level = 2 'NUTS 1' | 'Admin level {admin_level}'}"));
+        List<Formatter> b = interner.intern(JosmTemplateParser.parse("{name} ?{ admin_level = 2 'NUTS 1' | 'Admin level {admin_level}'}"));
+        assertTrue(a.get(1) == b.get(1));
+        assertTrue(a.get(2) == b.get(2));
+        List<Formatter> c = interner.intern(JosmTemplateParser.parse("?{ admin_level = 2 'NUTS 1' | 'Level {admin_level}'}"));
+        Conditional.ConditionalValue first = ((Conditional) a.get(2)).getConditions().get(0);
+        Conditional.ConditionalValue other = ((Conditional) c.get(0)).getConditions().get(0);
+        assertTrue(first.condition == other.condition);
+        assertTrue(first.values == other.values);
+        assertTrue(a == interner.intern(JosmTemplateParser.parse("{ref} ?{ admin_level = 2 'NUTS 1' | 'Admin level {admin_level}'}")));
+
+        Map<String, String> tags = new HashMap<>();
+        tags.put("admin_level", "4");
+        tags.put("ref", "1");
+        assertEquals("1 Admin level 4", Util.listFormat(a, Type.WAY, null, tags));
+        int size = interner.size();
+        assertTrue(size > 0);
+        interner.clear();
+        assertEquals(0, interner.size());
+    }
+}
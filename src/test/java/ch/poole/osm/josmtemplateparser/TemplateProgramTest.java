@@ -0,0 +1,122 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Condition;
+import ch.poole.osm.josmfilterparser.Meta;
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for TemplateProgram
+ *
+ * @author Simon Poole
+ *
+ */
+public class TemplateProgramTest {
+
+    private static final String[] TEMPLATES = { "Bus", "Bus {ref} - {name} ({operator})", "{%name} {special:id} {special:localName}",
+            "?{'{name}' | ''}", "?{'Bus' | '{name}' | '{ref}'}", "?{'{ref} ?{\\'{name}\\'|\\'\\'}' | 'none'}",
+            "?{'{ref} ?{\\'{from} {to}\\'|\\'{name}\\'}' | '{from}' | 'none'}",
+            "{ref} ?{ admin_level = 2 'NUTS 1' | '' | 'Admin level {admin_level}'} {name}",
+            "?{ admin_level = 2 '?{\\'{name}\\' | \\'{ref}\\'}' | ref '{ref}' | 'none'}", "?{'{from} - {to}' | '{from}' | 'none'}",
+            "{special:everything}" };
+
+    /**
+     * Programs should produce the same output as the parsed templates for all combinations of tags
+     */
+    @Test
+    public void equivalenceTest() throws ParseException {
+        TestMeta meta = new TestMeta() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Map<String, String> getTags() {
+                Map<String, String> tags = new HashMap<>();
+                tags.put("name", "Main");
+                return tags;
+            }
+        };
+        meta.id = 42L;
+        for (String template : TEMPLATES) {
+            List<Formatter> formatters = JosmTemplateParser.parse(template);
+            TemplateProgram program = TemplateProgram.compile(formatters);
+            FormatterAssert.assertEquivalent(template, formatters, program, meta);
+            FormatterAssert.assertEquivalent(template, formatters, program, null);
+        }
+    }
+
+    /**
+     * Check the generated instructions and constant pool
+     */
+    @Test
+    public void codeTest() throws ParseException {
+        TemplateProgram program = TemplateProgram.compile(JosmTemplateParser.parse("{ref} - {ref}"));
+        assertEquals(Arrays.asList("ref", " - "), Arrays.asList(program.getConstants()));
+        int[] expected = { TemplateProgram.TAG, 0, TemplateProgram.LITERAL, 1, TemplateProgram.TAG, 0 };
+        assertEquals(Arrays.toString(expected), Arrays.toString(program.getCode()));
+        assertEquals("{ref} - {ref}", program.toString());
+
+        program = TemplateProgram.compile(JosmTemplateParser.parse("?{ ref '{ref}' | 'none'}"));
+        expected = new int[] { TemplateProgram.JUMP_IF_NO_TAGS, 11, TemplateProgram.BRANCH_IF_FALSE, 0, 9, TemplateProgram.TAG, 0,
+                TemplateProgram.JUMP, 11, TemplateProgram.LITERAL, 1 };
+        assertEquals(Arrays.toString(expected), Arrays.toString(program.getCode()));
+    }
+
+    /**
+     * Searches are called as is
+     */
+    @Test
+    public void searchTest() throws ParseException {
+        Meta meta = new TestMeta() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Map<String, String> getTags() {
+                Map<String, String> tags = new HashMap<>();
+                tags.put("name", "Route 1");
+                return tags;
+            }
+
+            @Override
+            public List<Serializable> getMatchingElements(@NotNull Condition c) {
+                return Arrays.asList(this);
+            }
+
+            @Override
+            public @NotNull Meta wrap(Serializable o) {
+                return this;
+            }
+        };
+        TemplateProgram program = TemplateProgram.compile(JosmTemplateParser.parse("?{'{ref}' | '!{parent type=route \\'{name}\\'}'}"));
+        assertEquals("Route 1", program.format(Type.NODE, meta, new HashMap<>()));
+    }
+
+    /**
+     * Programs called from other programs should not overwrite the stack entries of the caller
+     */
+    @Test
+    public void nestedTest() throws ParseException {
+        TemplateProgram inner = TemplateProgram.compile(JosmTemplateParser.parse("?{'{from} - {to}' | '{from}' | 'none'}"));
+        Conditional conditional = new Conditional();
+        conditional.add(null, null, Arrays.asList(new Tag("ref", false), inner, new Tag("name", false)));
+        conditional.add(null, null, Arrays.asList(inner));
+        List<Formatter> formatters = Arrays.asList(conditional);
+        TemplateProgram outer = TemplateProgram.compile(formatters);
+        Map<String, String> tags = new HashMap<>();
+        for (String[] kv : new String[][] { {}, { "from", "A" }, { "to", "B" }, { "ref", "1" }, { "name", "Main" } }) {
+            if (kv.length > 0) {
+                tags.put(kv[0], kv[1]);
+            }
+            assertEquals(tags.toString(), Util.listFormat(formatters, Type.WAY, null, tags), outer.format(Type.WAY, null, tags));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for TemplateSet
+ *
+ * @author Simon Poole
+ *
+ */
+public class TemplateSetTest {
+
+    private static final String[] TEMPLATES = { "{name}", "{ref} {name}", "?{ admin_level = 2 'NUTS 1' | 'Admin level {admin_level}'} {name}",
+            "?{ admin_level = 2 'Country' | '{from} - {to}' | '{name}'}", "Bus {special:id}", "!{parent type=route '{name}'}" };
+
+    /**
+     * Map that counts the lookups
+     */
+    private static class CountingMap extends HashMap<String, String> {
+        private static final long serialVersionUID = 1L;
+
+        int gets = 0;
+
+        @Override
+        public String get(Object key) {
+            gets++;
+            return super.get(key);
+        }
+    }
+
+    /**
+     * The set should produce the same output as the individual templates
+     */
+    @Test
+    public void equivalenceTest() throws ParseException {
+        List<List<Formatter>> parsed = new ArrayList<>();
+        for (String template : TEMPLATES) {
+            parsed.add(JosmTemplateParser.parse(template));
+        }
+        KeyDictionary dictionary = new KeyDictionary();
+        TemplateSet set = TemplateSet.compile(parsed);
+        TemplateSet bound = TemplateSet.compile(parsed, dictionary);
+        assertEquals(TEMPLATES.length, set.size());
+        TestMeta meta = new TestMeta();
+        meta.id = 7L;
+        for (String level : new String[] { null, "2", "4" }) {
+            Map<String, String> tags = new HashMap<>();
+            tags.put("name", "Main street");
+            tags.put("ref", "1");
+            tags.put("from", "a");
+            if (level != null) {
+                tags.put("admin_level", level);
+            }
+            String[] result = set.format(Type.WAY, meta, tags);
+            String[] boundResult = bound.formatFrom(Type.WAY, meta, new MapTagSource(dictionary, tags));
+            for (int i = 0; i < TEMPLATES.length; i++) {
+                String expected = Util.listFormat(parsed.get(i), Type.WAY, meta, tags);
+                assertEquals(TEMPLATES[i], expected, result[i]);
+                assertEquals(TEMPLATES[i], expected, boundResult[i]);
+            }
+        }
+        String[] result = set.format(Type.WAY, meta, null);
+        for (int i = 0; i < TEMPLATES.length; i++) {
+            assertEquals(TEMPLATES[i], Util.listFormat(parsed.get(i), Type.WAY, meta, null), result[i]);
+        }
+    }
+
+    /**
+     * Each tag should only be read once
+     */
+    @Test
+    public void sharedReadsTest() throws ParseException {
+        List<List<Formatter>> parsed = new ArrayList<>();
+        parsed.add(JosmTemplateParser.parse("{name}"));
+        parsed.add(JosmTemplateParser.parse("{ref} {name}"));
+        parsed.add(JosmTemplateParser.parse("?{'{name} {ref}' | '{name}'}"));
+        CountingMap tags = new CountingMap();
+        tags.put("name", "Main street");
+        String[] result = TemplateSet.compile(parsed).format(Type.WAY, null, tags);
+        assertEquals("Main street", result[0]);
+        assertEquals(" Main street", result[1]);
+        assertEquals("Main street", result[2]);
+        assertEquals(2, tags.gets);
+    }
+}
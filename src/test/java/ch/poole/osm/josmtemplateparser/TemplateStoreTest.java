@@ -0,0 +1,154 @@
+package ch.poole.osm.josmtemplateparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ch.poole.osm.josmfilterparser.Type;
+
+/**
+ * Tests for TemplateSerializer and TemplateStore
+ *
+ * @author Simon Poole
+ *
+ */
+public class TemplateStoreTest {
+
+    private static final String[] TEMPLATES = { "Bus {ref}: {name}", "{%name}", "{special:id}",
+            "{ref} ?{ admin_level = 2 'NUTS 1' | '' | 'Admin level {admin_level}'} {name}", "?{'{from} - {to}' | '{from}'}",
+            "!{parent type=route 'Route {name}'}", "\u00c4 {stra\u00dfe}" };
+
+    /**
+     * Serialize the test templates
+     *
+     * @param dataVersion the data version
+     * @return the serialized bytes
+     * @throws IOException if writing fails
+     * @throws ParseException if a template can't be parsed
+     */
+    private static byte[] serialize(long dataVersion) throws IOException, ParseException {
+        Map<String, List<Formatter>> templates = new LinkedHashMap<>();
+        for (String template : TEMPLATES) {
+            templates.put(template, JosmTemplateParser.parse(template));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TemplateSerializer.write(out, templates, dataVersion);
+        return out.toByteArray();
+    }
+
+    /**
+     * Loaded templates should be equal to the parsed ones
+     */
+    @Test
+    public void roundTripTest() throws IOException, ParseException {
+        TemplateStore store = new TemplateStore(ByteBuffer.wrap(serialize(42L)), 42L);
+        assertEquals(42L, store.getDataVersion());
+        assertEquals(Arrays.asList(TEMPLATES), new ArrayList<>(store.names()));
+        Map<String, String> tags = new HashMap<>();
+        tags.put("name", "Main street");
+        tags.put("admin_level", "2");
+        for (String template : TEMPLATES) {
+            List<Formatter> parsed = JosmTemplateParser.parse(template);
+            List<Formatter> loaded = store.get(template);
+            assertEquals(template, parsed, loaded);
+            assertEquals(template, parsed.toString(), loaded.toString());
+            assertEquals(template, Util.listFormat(parsed, Type.WAY, null, tags), Util.listFormat(loaded, Type.WAY, null, tags));
+            assertTrue(loaded == store.get(template));
+        }
+        assertNull(store.get("unknown"));
+    }
+
+    /**
+     * A special whose handler isn't registered when loading is decoded as a tag, as the parser does
+     */
+    @Test
+    public void unregisteredSpecialTest() throws IOException, ParseException {
+        String key = "special:unregisteredSpecialTest";
+        Map<String, List<Formatter>> templates = new LinkedHashMap<>();
+        SpecialHandlers.register(key, (builder, type, meta, tags) -> builder.append("handler"));
+        try {
+            templates.put("t", JosmTemplateParser.parse("{" + key + "}"));
+            assertTrue(templates.get("t").get(0) instanceof Special);
+        } finally {
+            SpecialHandlers.unregister(key);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TemplateSerializer.write(out, templates, 1L);
+        List<Formatter> loaded = new TemplateStore(ByteBuffer.wrap(out.toByteArray()), 1L).get("t");
+        assertEquals(JosmTemplateParser.parse("{" + key + "}"), loaded);
+        Map<String, String> tags = new HashMap<>();
+        tags.put(key, "value");
+        assertEquals("value", Util.listFormat(loaded, Type.WAY, null, tags));
+    }
+
+    /**
+     * Memory mapped file
+     */
+    @Test
+    public void fileTest() throws IOException, ParseException {
+        File file = File.createTempFile("templates", ".bin");
+        try {
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(serialize(1L));
+            }
+            TemplateStore store = TemplateStore.open(file, 1L);
+            assertEquals(TEMPLATES.length, store.names().size());
+            assertEquals(JosmTemplateParser.parse(TEMPLATES[3]), store.get(TEMPLATES[3]));
+        } finally {
+            file.delete(); // NOSONAR
+        }
+    }
+
+    /**
+     * Stale and invalid data should be rejected
+     */
+    @Test
+    public void rejectTest() throws IOException, ParseException {
+        byte[] data = serialize(1L);
+        try {
+            new TemplateStore(ByteBuffer.wrap(data), 2L);
+            fail("stale data accepted");
+        } catch (IOException ioex) {
+            assertTrue(ioex.getMessage().contains("Stale"));
+        }
+        data[0] = 0;
+        try {
+            new TemplateStore(ByteBuffer.wrap(data), 1L);
+            fail("invalid data accepted");
+        } catch (IOException ioex) {
+            assertTrue(ioex.getMessage().contains("Not a template store"));
+        }
+        try {
+            new TemplateStore(ByteBuffer.wrap(new byte[10]), 1L);
+            fail("truncated data accepted");
+        } catch (IOException ioex) {
+            // expected
+        }
+        Map<String, List<Formatter>> templates = new HashMap<>();
+        List<Formatter> custom = new ArrayList<>();
+        custom.add((type, meta, tags) -> "x");
+        templates.put("custom", custom);
+        try {
+            TemplateSerializer.write(new ByteArrayOutputStream(), templates, 1L);
+            fail("custom formatter written");
+        } catch (IllegalArgumentException iaex) {
+            // expected
+        }
+    }
+}